@@ -0,0 +1,141 @@
+package com.seabasssoftware.led_controller;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.UUID;
+
+// Bluetooth serial port (RFCOMM) link, e.g. to an HC-06 module
+public class BluetoothTransport implements LedTransport {
+    private static final String TAG = "BluetoothTransport";
+    private static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805f9b34fb");
+
+    // Connect methods: look up the serial port service record, or go straight to channel 1 with a
+    // non-public API method for devices where the lookup fails
+    public static final String METHOD_SERVICE_RECORD = "rfcomm";
+    public static final String METHOD_CHANNEL_1 = "rfcomm-ch1";
+
+    private final BluetoothDevice mDevice;
+    private final String mPreferredMethod;
+    private BluetoothSocket mSocket;
+    private String mMethod;
+
+    public BluetoothTransport(BluetoothDevice device) {
+        this(device, METHOD_SERVICE_RECORD);
+    }
+
+    // Transport that tries the given connect method before the other one
+    public BluetoothTransport(BluetoothDevice device, String preferredMethod) {
+        mDevice = device;
+        mPreferredMethod = METHOD_CHANNEL_1.equals(preferredMethod) ?
+                METHOD_CHANNEL_1 : METHOD_SERVICE_RECORD;
+    }
+
+    // Connect to the first bonded device with the given name
+    public static Factory forDeviceName(final String name) {
+        return new Factory() {
+            @Override
+            public LedTransport create() {
+                return find(null, null, name);
+            }
+        };
+    }
+
+    // Whether the string is a Bluetooth MAC address like "00:11:22:AA:BB:CC"
+    public static boolean isAddress(String s) {
+        return s != null && BluetoothAdapter.checkBluetoothAddress(s);
+    }
+
+    // Transport for the device at a known address if there is one, otherwise for the first bonded
+    // device with the given name if any. Returns null if neither is found.
+    public static BluetoothTransport find(String address, String method, String name) {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if(adapter == null) return null;
+
+        // Known address skips enumerating bonded devices
+        if(isAddress(address)) {
+            return new BluetoothTransport(adapter.getRemoteDevice(address), method);
+        }
+
+        if(name == null) return null;
+
+        Set<BluetoothDevice> pairedDevices = adapter.getBondedDevices();
+        for(BluetoothDevice dev : pairedDevices) {
+            if(name.equals(dev.getName())) {
+                return new BluetoothTransport(dev, method);
+            }
+        }
+
+        Log.w(TAG, "Failed to find device " + name);
+        return null;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        String other = METHOD_CHANNEL_1.equals(mPreferredMethod) ?
+                METHOD_SERVICE_RECORD : METHOD_CHANNEL_1;
+
+        try {
+            connect(mPreferredMethod);
+        } catch(IOException e) {
+            // If that fails try again the other way
+            Log.w(TAG, "Connect using " + mPreferredMethod + " failed, trying " + other);
+            connect(other);
+        }
+    }
+
+    private void connect(String method) throws IOException {
+        if(mSocket != null) {
+            try {
+                mSocket.close();
+            } catch(IOException e) {
+                // Nothing to do
+            }
+        }
+
+        if(METHOD_SERVICE_RECORD.equals(method)) {
+            mSocket = mDevice.createRfcommSocketToServiceRecord(SPP_UUID);
+        } else {
+            try {
+                mSocket = (BluetoothSocket) mDevice.getClass().getMethod("createRfcommSocket",
+                        new Class[]{int.class}).invoke(mDevice, 1);
+            } catch(Exception e) {
+                throw new IOException("Failed to create bluetooth socket: " + e.toString(), e);
+            }
+        }
+
+        mSocket.connect();
+        mMethod = method;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    @Override
+    public String getAddress() {
+        return mDevice.getAddress();
+    }
+
+    @Override
+    public String getConnectMethod() {
+        return mMethod != null ? mMethod : mPreferredMethod;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(mSocket != null) mSocket.close();
+    }
+}
@@ -0,0 +1,86 @@
+package com.seabasssoftware.led_controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+// Pattern catalogs saved per board and firmware, so reconnecting to a board we've seen before
+// doesn't have to wait for the whole "l" listing. A catalog is identified by the board's address
+// plus the firmware version and catalog checksum it reports, and is fetched again whenever those
+// change.
+public class CatalogCache {
+    private static final int MAGIC = 0x4c454443; // "LEDC"
+    private static final int VERSION = 2;
+
+    private final File mDir;
+
+    public CatalogCache(File dir) {
+        mDir = dir;
+    }
+
+    // Identity of the catalog on a board, or null if its firmware doesn't report enough to tell
+    public static String identity(String address, LedState state) {
+        if(address == null || state.firmwareVersion == 0) return null;
+        return address + "/" + state.firmwareVersion + "/" + state.catalogChecksum;
+    }
+
+    // Load cached catalog into state, returns false if there is none for this identity
+    public boolean load(String identity, LedState state) {
+        File file = fileFor(identity);
+        if(!file.exists()) return false;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+            if(!in.readUTF().equals(identity)) return false;
+
+            LedState catalog = new LedState();
+            StateCache.readPatterns(in, catalog);
+            state.setPatterns(catalog.patterns);
+            return true;
+        } catch(IOException e) {
+            return false;
+        } finally {
+            StateCache.closeQuietly(in);
+        }
+    }
+
+    public void save(String identity, LedState state) throws IOException {
+        save(identity, state.snapshot());
+    }
+
+    // Write the snapshot's catalog for the given identity. Snapshots are immutable, so this can
+    // run on any thread.
+    public void save(String identity, LedState.Snapshot state) throws IOException {
+        if(!mDir.exists() && !mDir.mkdirs()) {
+            throw new IOException("Failed to create " + mDir);
+        }
+
+        File file = fileFor(identity);
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(identity);
+            StateCache.writePatterns(out, state.patterns);
+        } finally {
+            out.close();
+        }
+
+        if(!tmp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    private File fileFor(String identity) {
+        return new File(mDir, "catalog-" + Integer.toHexString(identity.hashCode()) + ".bin");
+    }
+}
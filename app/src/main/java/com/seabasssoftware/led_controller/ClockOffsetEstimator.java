@@ -0,0 +1,64 @@
+package com.seabasssoftware.led_controller;
+
+// Estimates how long after we write a command the board applies it, from the round trip between
+// writing a command and seeing its echo. The board has no clock of its own to ask, so like NTP we
+// take half the round trip as the one-way delay, using the fastest recent round trip since slower
+// ones have picked up queueing along the way. Half of that round trip also bounds the error of
+// the estimate.
+public class ClockOffsetEstimator {
+    private static final int WINDOW = 32;
+
+    private final long[] mRttNs = new long[WINDOW];
+    private int mCount = 0;
+    private int mNext = 0;
+
+    // Record a command written at sentNs and echoed at ackNs, both System.nanoTime()
+    public synchronized void addSample(long sentNs, long ackNs) {
+        long rtt = ackNs - sentNs;
+        if(rtt < 0) return;
+
+        mRttNs[mNext] = rtt;
+        mNext = (mNext + 1) % WINDOW;
+        if(mCount < WINDOW) mCount++;
+    }
+
+    public synchronized boolean hasEstimate() {
+        return mCount > 0;
+    }
+
+    public synchronized int getSampleCount() {
+        return mCount;
+    }
+
+    // Time from writing a command until the board applies it, zero if there are no samples yet
+    public synchronized long getDelayNs() {
+        return getMinRttNs() / 2;
+    }
+
+    // How far the delay estimate may be off
+    public synchronized long getErrorBoundNs() {
+        return getMinRttNs() / 2;
+    }
+
+    // Spread of recent round trips above the fastest one
+    public synchronized long getJitterNs() {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for(int i = 0; i < mCount; i++) {
+            min = Math.min(min, mRttNs[i]);
+            max = Math.max(max, mRttNs[i]);
+        }
+        return mCount > 0 ? max - min : 0;
+    }
+
+    public synchronized void reset() {
+        mCount = 0;
+        mNext = 0;
+    }
+
+    private long getMinRttNs() {
+        long min = Long.MAX_VALUE;
+        for(int i = 0; i < mCount; i++) min = Math.min(min, mRttNs[i]);
+        return mCount > 0 ? min : 0;
+    }
+}
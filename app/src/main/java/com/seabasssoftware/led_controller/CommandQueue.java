@@ -0,0 +1,236 @@
+package com.seabasssoftware.led_controller;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// Queue of outgoing command lines where a newer line for the same setting replaces the pending
+// one instead of queueing behind it. Lines are keyed by command code plus layer number for layer
+// settings (p/a/t) and by command code alone for global settings (b/s). Anything else (queries
+// like "l" and "c") is never coalesced and is sent in order.
+//
+// Lines can carry receipts for the commands they belong to. A line that replaces a pending one
+// takes over its receipts, as sending it delivers both.
+//
+// Commands can also be scheduled for a set time, e.g. to line up the same change on several
+// boards. Those are kept apart from the coalescing queue and handed out by pollDue() once due.
+// Pending lines for settings a scheduled command also sets are dropped in favour of it, handing
+// it their receipts.
+public class CommandQueue {
+    private final LinkedHashMap<String, String> mPending = new LinkedHashMap<String, String>();
+    private final PriorityQueue<Scheduled> mScheduled = new PriorityQueue<Scheduled>(4,
+            new Comparator<Scheduled>() {
+                @Override
+                public int compare(Scheduled a, Scheduled b) {
+                    return Long.signum(a.dueNs - b.dueNs);
+                }
+            });
+    private long mUniqueCount = 0;
+
+    // When each pending setting was first queued, and when the last line polled was
+    private final HashMap<String, Long> mEnqueuedNs = new HashMap<String, Long>();
+    private long mPolledEnqueuedNs = 0;
+    private int mCoalescedCount = 0;
+
+    // Receipts waiting on each pending setting, and those of the last line polled
+    private final HashMap<String, ArrayList<CommandReceipt>> mReceipts =
+            new HashMap<String, ArrayList<CommandReceipt>>();
+    private List<CommandReceipt> mPolledReceipts;
+
+    // Command lines to be written together at a System.nanoTime() deadline
+    public static class Scheduled {
+        public final String cmd;
+        public final long dueNs;
+        private final Runnable mOnWritten;
+        private volatile long mWrittenNs = -1;
+
+        // Receipts taken over from the pending lines this replaced, by setting
+        private HashMap<String, List<CommandReceipt>> mReceipts;
+
+        // The callback runs on the I/O thread right after the write, or wherever the command is
+        // dropped with the link, in which case getWrittenNs() stays -1
+        public Scheduled(String cmd, long dueNs, Runnable onWritten) {
+            this.cmd = cmd;
+            this.dueNs = dueNs;
+            mOnWritten = onWritten;
+        }
+
+        // When the command was actually written, or -1 if it hasn't been
+        public long getWrittenNs() {
+            return mWrittenNs;
+        }
+
+        public void markWritten(long writtenNs) {
+            mWrittenNs = writtenNs;
+            if(mOnWritten != null) mOnWritten.run();
+        }
+
+        // Receipts waiting on one of the command's lines, or null if it has none
+        List<CommandReceipt> getReceipts(String line) {
+            String key = keyFor(line);
+            return mReceipts != null && key != null ? mReceipts.get(key) : null;
+        }
+
+        // Command will never be written
+        void fail(long nowNs) {
+            if(mReceipts != null) {
+                for(List<CommandReceipt> receipts : mReceipts.values()) {
+                    for(CommandReceipt r : receipts) r.fail(nowNs);
+                }
+            }
+            if(mOnWritten != null) mOnWritten.run();
+        }
+    }
+
+    // Add a command which may contain several newline terminated lines
+    public void offer(String cmd) {
+        offer(cmd, null);
+    }
+
+    // Add a command, tracking its lines with the given receipt if not null
+    public synchronized void offer(String cmd, CommandReceipt receipt) {
+        int start = 0;
+        while(start < cmd.length()) {
+            int end = cmd.indexOf('\n', start);
+            end = (end < 0) ? cmd.length() : end + 1;
+
+            String line = cmd.substring(start, end);
+            String key = keyFor(line);
+            if(key == null) {
+                key = "#" + mUniqueCount++;
+            }
+
+            // Replacing an existing key keeps its place in line, so a steady stream of updates to
+            // one setting can't starve the others
+            if(mPending.put(key, line) != null) {
+                mCoalescedCount++;
+            } else {
+                mEnqueuedNs.put(key, System.nanoTime());
+            }
+
+            if(receipt != null) {
+                receipt.addLine();
+                ArrayList<CommandReceipt> receipts = mReceipts.get(key);
+                if(receipts == null) {
+                    receipts = new ArrayList<CommandReceipt>(1);
+                    mReceipts.put(key, receipts);
+                }
+                receipts.add(receipt);
+            }
+            start = end;
+        }
+    }
+
+    // Pending lines for settings the scheduled command also sets are dropped, so an older value
+    // can't go out after it and undo it. Their receipts wait on the scheduled command instead.
+    public synchronized void offerAt(Scheduled cmd) {
+        int start = 0;
+        while(start < cmd.cmd.length()) {
+            int end = cmd.cmd.indexOf('\n', start);
+            end = (end < 0) ? cmd.cmd.length() : end + 1;
+
+            String key = keyFor(cmd.cmd.substring(start, end));
+            if(key != null && mPending.remove(key) != null) {
+                mCoalescedCount++;
+                mEnqueuedNs.remove(key);
+
+                ArrayList<CommandReceipt> receipts = mReceipts.remove(key);
+                if(receipts != null) {
+                    if(cmd.mReceipts == null) {
+                        cmd.mReceipts = new HashMap<String, List<CommandReceipt>>();
+                    }
+                    cmd.mReceipts.put(key, receipts);
+                }
+            }
+            start = end;
+        }
+        mScheduled.add(cmd);
+    }
+
+    // Take the earliest scheduled command if it is due, otherwise return null
+    public synchronized Scheduled pollDue() {
+        Scheduled next = mScheduled.peek();
+        if(next == null || next.dueNs - System.nanoTime() > 0) return null;
+        return mScheduled.poll();
+    }
+
+    // When the earliest scheduled command is due, as System.nanoTime(), or Long.MAX_VALUE if none
+    public synchronized long getNextDueNs() {
+        Scheduled next = mScheduled.peek();
+        return next != null ? next.dueNs : Long.MAX_VALUE;
+    }
+
+    // Take the oldest pending line without waiting, or return null if there is none
+    public synchronized String poll() {
+        if(mPending.isEmpty()) return null;
+
+        Iterator<Map.Entry<String, String>> it = mPending.entrySet().iterator();
+        Map.Entry<String, String> entry = it.next();
+        Long enqueuedNs = mEnqueuedNs.remove(entry.getKey());
+        mPolledEnqueuedNs = enqueuedNs != null ? enqueuedNs : System.nanoTime();
+        mPolledReceipts = mReceipts.remove(entry.getKey());
+        it.remove();
+        return entry.getValue();
+    }
+
+    // When the setting last returned by poll() was first queued, as System.nanoTime(). A setting
+    // that was replaced while waiting counts from the first time it was queued.
+    public synchronized long getPolledEnqueuedNs() {
+        return mPolledEnqueuedNs;
+    }
+
+    // Receipts for the line last returned by poll(), or null if it has none
+    public synchronized List<CommandReceipt> getPolledReceipts() {
+        return mPolledReceipts;
+    }
+
+    public synchronized boolean isEmpty() {
+        return mPending.isEmpty();
+    }
+
+    public synchronized int size() {
+        return mPending.size();
+    }
+
+    // Drop everything pending, failing its receipts
+    public synchronized void clear() {
+        long now = System.nanoTime();
+        for(Collection<CommandReceipt> receipts : mReceipts.values()) {
+            for(CommandReceipt r : receipts) r.fail(now);
+        }
+        for(Scheduled s : mScheduled) s.fail(now);
+        mReceipts.clear();
+        mPending.clear();
+        mEnqueuedNs.clear();
+        mScheduled.clear();
+    }
+
+    // Number of lines that were replaced by a newer line before being sent
+    public synchronized int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    // Get coalescing key for a command line, or null if it should never be replaced
+    static String keyFor(String line) {
+        if(line.isEmpty()) return null;
+
+        char code = line.charAt(0);
+        if(code == 'b' || code == 's') {
+            return String.valueOf(code);
+        } else if(code == 'p' || code == 'a' || code == 't') {
+            // Key on layer number, which is everything up to the first separator
+            int end = 1;
+            while(end < line.length() && Character.isDigit(line.charAt(end))) end++;
+            if(end == 1) return null;
+            return line.substring(0, end);
+        }
+
+        return null;
+    }
+}
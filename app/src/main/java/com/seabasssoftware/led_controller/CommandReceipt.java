@@ -0,0 +1,131 @@
+package com.seabasssoftware.led_controller;
+
+import java.util.concurrent.TimeUnit;
+
+// Progress of one command from being queued to the board confirming it, for callers that want to
+// know when an edit has really been applied. The board has no sequence numbers, so confirmation
+// comes from FlowControl matching each line's echo; a command is confirmed once every one of its
+// lines is. If a queued line is replaced by a newer value for the same setting, the newer line's
+// echo confirms both.
+//
+// Boards that don't echo can't confirm anything, so commands to them are done once written.
+public class CommandReceipt {
+    public static final int PENDING = 0;
+    public static final int CONFIRMED = 1;
+    public static final int UNCONFIRMED = 2; // Written, but the board doesn't echo
+    public static final int FAILED = 3; // Never written or never acknowledged
+
+    private final long mSeq;
+    private final long mEnqueuedNs;
+    private long mWrittenNs = -1;
+    private long mDoneNs = -1;
+    private int mLines = 0;
+    private boolean mUnconfirmed = false;
+    private int mStatus = PENDING;
+    private Listener mListener;
+
+    // Called once when the command is done, on whichever pipeline thread finished it
+    public interface Listener {
+        void onCommandDone(CommandReceipt receipt);
+    }
+
+    public CommandReceipt(long seq, long enqueuedNs) {
+        mSeq = seq;
+        mEnqueuedNs = enqueuedNs;
+    }
+
+    // Call the listener when done, right away if already done
+    public void setListener(Listener listener) {
+        synchronized(this) {
+            if(mStatus == PENDING) {
+                mListener = listener;
+                return;
+            }
+        }
+        listener.onCommandDone(this);
+    }
+
+    public long getSeq() {
+        return mSeq;
+    }
+
+    public synchronized int getStatus() {
+        return mStatus;
+    }
+
+    public synchronized boolean isDone() {
+        return mStatus != PENDING;
+    }
+
+    // When queued, first written and done, as System.nanoTime(). Not yet happened is -1.
+    public long getEnqueuedNs() {
+        return mEnqueuedNs;
+    }
+
+    public synchronized long getWrittenNs() {
+        return mWrittenNs;
+    }
+
+    public synchronized long getDoneNs() {
+        return mDoneNs;
+    }
+
+    // Time from queueing to done, or -1 if not done yet
+    public synchronized long getLatencyNs() {
+        return mDoneNs >= 0 ? mDoneNs - mEnqueuedNs : -1;
+    }
+
+    // Wait until done, returns false on timeout. Don't call on the main thread.
+    public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while(mStatus == PENDING) {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    // A line of the command was queued
+    synchronized void addLine() {
+        mLines++;
+    }
+
+    synchronized void onWritten(long writtenNs) {
+        if(mWrittenNs < 0) mWrittenNs = writtenNs;
+    }
+
+    // A line was acknowledged, or written to a board that doesn't echo. Returns true if that was
+    // the last line, making the command done.
+    boolean onLineDone(long doneNs, boolean confirmed) {
+        int status;
+        synchronized(this) {
+            if(mStatus != PENDING) return false;
+
+            if(!confirmed) mUnconfirmed = true;
+            if(--mLines > 0) return false;
+            status = mUnconfirmed ? UNCONFIRMED : CONFIRMED;
+        }
+        return finish(status, doneNs);
+    }
+
+    // Command was dropped or timed out. Returns true if it wasn't already done.
+    boolean fail(long doneNs) {
+        return finish(FAILED, doneNs);
+    }
+
+    private boolean finish(int status, long doneNs) {
+        Listener listener;
+        synchronized(this) {
+            if(mStatus != PENDING) return false;
+
+            mStatus = status;
+            mDoneNs = doneNs;
+            listener = mListener;
+            mListener = null;
+            notifyAll();
+        }
+        if(listener != null) listener.onCommandDone(this);
+        return true;
+    }
+}
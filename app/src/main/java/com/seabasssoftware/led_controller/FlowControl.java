@@ -0,0 +1,280 @@
+package com.seabasssoftware.led_controller;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+
+// Tracks commands in flight to the controller board so the sender only waits as long as the board
+// actually needs. The board echoes back each setting it applies, so a response line with the same
+// setting key acknowledges the oldest matching command. Up to a window of commands may be
+// unacknowledged at once.
+//
+// Older firmware that never echoes falls back to a fixed delay between commands. We start out
+// paced and switch to windowed mode the first time the board echoes a setting we sent, with the
+// same values. Query replies like "l", "c" and "v" come from every board, so they don't count,
+// and neither does anything while a state dump ("c") may still be coming in, as its b/s/p/a/t
+// lines look just like echoes.
+//
+// Each acknowledgement also gives a round trip time sample, passed on to a clock estimator and
+// rate pacer if set. Commands that are never acked count as lost for the pacer, but only once the
+// board has acked something in windowed mode, and the pacer goes back to its default rate when we
+// fall back to pacing. Both also go to link metrics if set. Receipts sent along with a line are
+// confirmed by its ack, or failed if it never comes.
+public class FlowControl {
+    public static final int DEFAULT_WINDOW = 4;
+    public static final long DEFAULT_ACK_TIMEOUT_MS = 250;
+    public static final long PACING_DELAY_MS = 100;
+
+    // Go back to pacing after this many commands in a row time out without an ack
+    private static final int MAX_UNACKED_STREAK = 8;
+
+    private final ArrayDeque<InFlight> mInFlight = new ArrayDeque<InFlight>();
+    private final int mWindow;
+    private final long mAckTimeoutMs;
+    private boolean mPaced = true;
+    private int mUnackedStreak = 0;
+
+    // Whether a command has been acked since leaving paced mode
+    private boolean mEchoed = false;
+    private long mLastSendMs = 0;
+
+    // When a state dump was last asked for while paced
+    private long mDumpSentMs = Long.MIN_VALUE / 2;
+    private ClockOffsetEstimator mClock;
+    private LinkRatePacer mPacer;
+    private LinkMetrics mMetrics;
+
+    private static class InFlight {
+        final char code;
+        final int layer;
+        final long sentMs;
+        final long sentNs;
+        final int bytes;
+        final List<CommandReceipt> receipts;
+
+        // Line as sent, only kept while paced to compare echoes against
+        String line;
+
+        InFlight(char code, int layer, long sentNs, int bytes, List<CommandReceipt> receipts) {
+            this.code = code;
+            this.layer = layer;
+            this.sentMs = sentNs / 1000000;
+            this.sentNs = sentNs;
+            this.bytes = bytes;
+            this.receipts = receipts;
+        }
+    }
+
+    public FlowControl() {
+        this(DEFAULT_WINDOW, DEFAULT_ACK_TIMEOUT_MS);
+    }
+
+    public FlowControl(int window, long ackTimeoutMs) {
+        mWindow = Math.max(1, window);
+        mAckTimeoutMs = ackTimeoutMs;
+    }
+
+    // Feed round trip times of acknowledged commands to the given estimator
+    public synchronized void setClockEstimator(ClockOffsetEstimator clock) {
+        mClock = clock;
+    }
+
+    // Feed acknowledged sizes and round trip times, and lost commands, to the given pacer
+    public synchronized void setPacer(LinkRatePacer pacer) {
+        mPacer = pacer;
+    }
+
+    public synchronized void setMetrics(LinkMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    // Zero if another command may be written now, otherwise the time until one may be unless an
+    // ack frees a slot first
+    public synchronized long getSlotDelayMs() {
+        long now = now();
+        if(mPaced) return Math.max(0, mLastSendMs + PACING_DELAY_MS - now);
+
+        expire(now);
+        if(mInFlight.size() < mWindow) return 0;
+        return Math.max(0, mInFlight.peekFirst().sentMs + mAckTimeoutMs - now);
+    }
+
+    // Record that a command line was written to the board
+    public synchronized void onSent(String line) {
+        onSent(line, line.length());
+    }
+
+    // Record that a command line was written as the given number of bytes on the wire
+    public synchronized void onSent(String line, int bytes) {
+        onSent(line, bytes, null);
+    }
+
+    // Record a written line along with the receipts waiting on it, if any
+    public synchronized void onSent(String line, int bytes, List<CommandReceipt> receipts) {
+        long nowNs = System.nanoTime();
+        mLastSendMs = nowNs / 1000000;
+        if(!mPaced) {
+            mInFlight.addLast(new InFlight(line.charAt(0), layerOf(line), nowNs, bytes,
+                    receipts));
+            return;
+        }
+
+        if(receipts != null) {
+            // Nothing will ever be acked, written is as good as it gets
+            for(CommandReceipt r : receipts) r.onLineDone(nowNs, false);
+        }
+
+        // Remember the last few settings sent, so an echo of one of them can be told apart from
+        // any other reply
+        if(line.charAt(0) == 'c') {
+            mDumpSentMs = mLastSendMs;
+        } else if(isSettingCode(line.charAt(0))) {
+            while(!mInFlight.isEmpty() && (mInFlight.size() >= mWindow ||
+                    mLastSendMs - mInFlight.peekFirst().sentMs >= mAckTimeoutMs)) {
+                mInFlight.removeFirst();
+            }
+            InFlight probe = new InFlight(line.charAt(0), layerOf(line), nowNs, bytes, null);
+            probe.line = line;
+            mInFlight.addLast(probe);
+        }
+    }
+
+    // Link is gone, nothing in flight will be acked
+    public synchronized void abandon() {
+        long now = System.nanoTime();
+        for(InFlight f : mInFlight) fail(f, now);
+        mInFlight.clear();
+    }
+
+    // Match a response from the board against commands in flight
+    public synchronized void onResponse(ResponseMessage msg) {
+        if(msg.getCode() == 0) return;
+
+        // Ack the oldest command for the same setting. A state dump ("c") is acked by any line.
+        char code = msg.getCode();
+        int layer = isLayerCode(code) ? msg.getInt(0) : -1;
+        if(mPaced) {
+            // A state dump's lines could be taken for echoes until it has had time to finish
+            if(now() - mDumpSentMs < mAckTimeoutMs) return;
+
+            // Firmware acks after all if this echoes a setting we sent, no need to pace any more
+            for(InFlight f : mInFlight) {
+                if(f.code == code && f.layer == layer && sameValues(f.line, msg)) {
+                    mPaced = false;
+                    mUnackedStreak = 0;
+                    mInFlight.clear();
+                    return;
+                }
+            }
+            return;
+        }
+
+        InFlight dump = null;
+        for(Iterator<InFlight> it = mInFlight.iterator(); it.hasNext(); ) {
+            InFlight f = it.next();
+            if(f.code == code && f.layer == layer) {
+                mUnackedStreak = 0;
+                mEchoed = true;
+                long ackNs = System.nanoTime();
+                if(mClock != null) mClock.addSample(f.sentNs, ackNs);
+                if(mPacer != null) mPacer.onAck(f.bytes, ackNs - f.sentNs);
+                if(mMetrics != null) mMetrics.writeToEchoUs.add((ackNs - f.sentNs) / 1000);
+                confirm(f, ackNs);
+                it.remove();
+                return;
+            } else if(dump == null && f.code == 'c') {
+                dump = f;
+            }
+        }
+
+        if(dump != null) {
+            confirm(dump, System.nanoTime());
+            mInFlight.remove(dump);
+        }
+    }
+
+    public synchronized boolean isPaced() {
+        return mPaced;
+    }
+
+    public synchronized int getInFlightCount() {
+        return mPaced ? 0 : mInFlight.size();
+    }
+
+    // Drop commands that were never acked, falling back to pacing if that keeps happening
+    private void expire(long now) {
+        while(!mInFlight.isEmpty() && now - mInFlight.peekFirst().sentMs >= mAckTimeoutMs) {
+            fail(mInFlight.removeFirst(), now * 1000000);
+            if(mPacer != null && mEchoed) mPacer.onLoss();
+            if(mMetrics != null) mMetrics.onCommandDropped();
+            if(++mUnackedStreak >= MAX_UNACKED_STREAK) {
+                mPaced = true;
+                mEchoed = false;
+                if(mPacer != null) mPacer.resetRate();
+                abandon();
+            }
+        }
+    }
+
+    private void confirm(InFlight f, long ackNs) {
+        if(f.receipts == null) return;
+
+        for(CommandReceipt r : f.receipts) {
+            if(r.onLineDone(ackNs, true) && mMetrics != null) {
+                mMetrics.editToConfirmUs.add((ackNs - r.getEnqueuedNs()) / 1000);
+            }
+        }
+    }
+
+    private static void fail(InFlight f, long nowNs) {
+        if(f.receipts == null) return;
+        for(CommandReceipt r : f.receipts) r.fail(nowNs);
+    }
+
+    // Layer number of a layer command line, or -1 for anything else
+    static int layerOf(String line) {
+        if(!isLayerCode(line.charAt(0))) return -1;
+
+        int layer = 0;
+        for(int i = 1; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if(c < '0' || c > '9') break;
+            layer = layer * 10 + (c - '0');
+        }
+        return layer;
+    }
+
+    // Whether a response carries the same values as a sent command line
+    static boolean sameValues(String line, ResponseMessage msg) {
+        int n = 0;
+        int i = 1;
+        int end = line.length();
+        while(end > 1 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) end--;
+        while(i <= end && n < msg.getArgCount()) {
+            boolean negative = i < end && line.charAt(i) == '-';
+            if(negative) i++;
+
+            int value = 0;
+            for(; i < end && line.charAt(i) != ','; i++) {
+                char c = line.charAt(i);
+                if(c < '0' || c > '9') return false;
+                value = value * 10 + (c - '0');
+            }
+            if((negative ? -value : value) != msg.getInt(n++)) return false;
+            i++;
+        }
+        return n == msg.getArgCount() && i > end;
+    }
+
+    private static boolean isSettingCode(char code) {
+        return isLayerCode(code) || code == 'b' || code == 's';
+    }
+
+    private static boolean isLayerCode(char code) {
+        return code == 'p' || code == 'a' || code == 't';
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,37 @@
+package com.seabasssoftware.led_controller;
+
+import android.view.Choreographer;
+
+// Runs an action at most once per display frame however often it is requested in between, so a
+// fast slider drag builds and sends one update per frame instead of one per touch event. The
+// action sees whatever the latest values are when the frame comes. Main thread only.
+public class FrameCoalescer implements Choreographer.FrameCallback {
+    private final Runnable mAction;
+    private boolean mPending = false;
+
+    public FrameCoalescer(Runnable action) {
+        mAction = action;
+    }
+
+    // Run the action on the next frame, unless it is already due to
+    public void request() {
+        if(mPending) return;
+
+        mPending = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    // Drop a pending run, e.g. because the caller is about to write the final values itself
+    public void cancel() {
+        if(!mPending) return;
+
+        mPending = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mPending = false;
+        mAction.run();
+    }
+}
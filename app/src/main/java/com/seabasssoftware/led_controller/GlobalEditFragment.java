@@ -23,6 +23,14 @@ public class GlobalEditFragment extends Fragment implements
     private LedState mLedState = null;
     private LedControlService mService;
 
+    // Slider moves are sent at most once per frame, and the final value when the drag ends
+    private final FrameCoalescer mPendingWrite = new FrameCoalescer(new Runnable() {
+        @Override
+        public void run() {
+            writeState(false);
+        }
+    });
+
     @BindView(R.id.globalBrightnessSeekBar) SeekBar mGlobalSeek;
     @BindView(R.id.topBrightnessSeekBar) SeekBar mTopSeek;
     @BindView(R.id.backBrightnessSeekBar) SeekBar mBackSeek;
@@ -49,6 +57,7 @@ public class GlobalEditFragment extends Fragment implements
 
     @Override
     public void onDetach() {
+        mPendingWrite.cancel();
         if(mService != null) mService.removeLedControllerListener(this);
         mService = null;
         mLedState = null;
@@ -79,7 +88,7 @@ public class GlobalEditFragment extends Fragment implements
     @Override
     public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
         if(fromUser) {
-            writeState(false);
+            mPendingWrite.request();
         }
     }
 
@@ -89,6 +98,7 @@ public class GlobalEditFragment extends Fragment implements
 
     @Override
     public void onStopTrackingTouch(SeekBar seekBar) {
+        mPendingWrite.cancel();
         writeState(true);
     }
 
@@ -96,15 +106,18 @@ public class GlobalEditFragment extends Fragment implements
         if(mLedState == null && mService == null) return;
 
         mLedState.globalBrightness = mGlobalSeek.getProgress();
-        mLedState.sectionBrightness.set(0, mTopSeek.getProgress());
-        mLedState.sectionBrightness.set(1, mBackSeek.getProgress());
-        mLedState.sectionBrightness.set(2, mChainSeek.getProgress());
-        mLedState.sectionBrightness.set(3, mBottomSeek.getProgress());
+        mLedState.sectionBrightness[0] = mTopSeek.getProgress();
+        mLedState.sectionBrightness[1] = mBackSeek.getProgress();
+        mLedState.sectionBrightness[2] = mChainSeek.getProgress();
+        mLedState.sectionBrightness[3] = mBottomSeek.getProgress();
+
+        String cmd = mLedState.getChangedGlobalConfigCommand();
+        if(cmd.isEmpty()) return;
 
         if(isFinal) {
-            mService.sendCommand(mLedState.getGlobalConfigCommand());
+            mService.sendCommand(cmd);
         } else {
-            mService.sendCommandIfReady(mLedState.getGlobalConfigCommand());
+            mService.sendCommandIfReady(cmd);
         }
     }
 
@@ -112,10 +125,10 @@ public class GlobalEditFragment extends Fragment implements
         if(mLedState == null) return;
 
         mGlobalSeek.setProgress(mLedState.globalBrightness);
-        mTopSeek.setProgress(mLedState.sectionBrightness.get(0));
-        mBackSeek.setProgress(mLedState.sectionBrightness.get(1));
-        mChainSeek.setProgress(mLedState.sectionBrightness.get(2));
-        mBottomSeek.setProgress(mLedState.sectionBrightness.get(3));
+        mTopSeek.setProgress(mLedState.sectionBrightness[0]);
+        mBackSeek.setProgress(mLedState.sectionBrightness[1]);
+        mChainSeek.setProgress(mLedState.sectionBrightness[2]);
+        mBottomSeek.setProgress(mLedState.sectionBrightness[3]);
     }
 
     @Override
@@ -124,7 +137,7 @@ public class GlobalEditFragment extends Fragment implements
     }
 
     @Override
-    public void onLedStateChange(LedState state) {
+    public void onLedStateChange(LedState state, int changes) {
         loadState();
     }
 
@@ -132,7 +145,7 @@ public class GlobalEditFragment extends Fragment implements
     public void onServiceConnected(ComponentName name, IBinder service) {
         mService = ((LedControlService.LocalBinder)service).getService();
         mLedState = mService.getLedState();
-        mService.addLedControllerListener(this);
+        mService.addLedControllerListener(this, LedState.SCOPE_GLOBAL | LedState.SCOPE_SECTIONS);
     }
 
     @Override
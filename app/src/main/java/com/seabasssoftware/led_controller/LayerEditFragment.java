@@ -38,6 +38,14 @@ public class LayerEditFragment extends Fragment implements
     private ParameterRowSliderWrapper mAnimSpeed;
     private ParameterRowSliderWrapper mAnimStep;
 
+    // Slider moves are sent at most once per frame, and the final values when the drag ends
+    private final FrameCoalescer mPendingWrite = new FrameCoalescer(new Runnable() {
+        @Override
+        public void run() {
+            writeState(false);
+        }
+    });
+
     @BindView(R.id.patternSpinner)
     Spinner mPatternSpinner;
 
@@ -139,7 +147,6 @@ public class LayerEditFragment extends Fragment implements
 
         @Override
         public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-            Log.d(TAG, "PROGRESS: " + progress + " of " + seekBar.getMax());
             mArgValueText.setText(Integer.toString(progress + mMinVal));
             mListener.onProgressChanged(seekBar, progress + mMinVal, fromUser);
         }
@@ -162,6 +169,7 @@ public class LayerEditFragment extends Fragment implements
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        mPendingWrite.cancel();
 
         if (mService != null) {
             mService.removeLedControllerListener(this);
@@ -174,7 +182,7 @@ public class LayerEditFragment extends Fragment implements
     @Override
     public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
         if (fromUser) {
-            writeState(false);
+            mPendingWrite.request();
         }
     }
 
@@ -184,6 +192,7 @@ public class LayerEditFragment extends Fragment implements
 
     @Override
     public void onStopTrackingTouch(SeekBar seekBar) {
+        mPendingWrite.cancel();
         writeState(true);
     }
 
@@ -191,37 +200,50 @@ public class LayerEditFragment extends Fragment implements
         if (mLedState == null) return;
 
         LedState.LayerSettings layer = mLedState.getLayer(mLayerNum);
-        for (int i = 0; i < mArgs.size(); i++) {
-            layer.args.set(i, mArgs.get(i).getValue());
+        for (int i = 0; i < mArgs.size() && i < layer.args.length; i++) {
+            layer.args[i] = mArgs.get(i).getValue();
         }
         layer.animSpeed = mAnimSpeed.getValue();
         layer.animStep = mAnimStep.getValue();
 
+        String cmd = layer.getChangedConfigCommand();
+        if (cmd.isEmpty()) return;
+
         if (isFinal) {
-            mService.sendCommand(layer.getConfigCommand());
+            mService.sendCommand(cmd);
         } else {
-            mService.sendCommandIfReady(layer.getConfigCommand());
+            mService.sendCommandIfReady(cmd);
         }
 
         Log.w(TAG, "WRITING LAYER STATE " + mLayerNum);
     }
 
     public void loadState() {
-        if (mLedState == null) return;
+        loadPatterns();
+        loadLayer();
+    }
 
-        LedState.LayerSettings layer = mLedState.getLayer(mLayerNum);
+    // Rebuild pattern spinner entries from the pattern catalog
+    public void loadPatterns() {
+        if (mLedState == null) return;
 
         mPatternArray.clear();
         for (LedState.PatternInfo p : mLedState.patterns) {
             mPatternArray.add(p.name);
         }
+    }
+
+    public void loadLayer() {
+        if (mLedState == null) return;
+
+        LedState.LayerSettings layer = mLedState.getLayer(mLayerNum);
         mPatternSpinner.setSelection(layer.patternNum);
 
         for (int i = 0; i < mArgs.size() && layer.patternNum < mLedState.patterns.size(); i++) {
             LedState.PatternInfo pat = mLedState.patterns.get(layer.patternNum);
-            if (i < pat.args.size() && i < mArgs.size() && i < layer.args.size()) {
+            if (i < pat.args.size() && i < mArgs.size() && i < layer.args.length) {
                 LedState.PatternArgInfo arg = pat.args.get(i);
-                mArgs.get(i).configure(arg.name, arg.start, arg.end, layer.args.get(i));
+                mArgs.get(i).configure(arg.name, arg.start, arg.end, layer.args[i]);
             } else if (i < mArgs.size()) {
                 mArgs.get(i).disable();
             }
@@ -234,7 +256,7 @@ public class LayerEditFragment extends Fragment implements
     @Override
     public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
         mLedState.getLayer(mLayerNum).setPattern(position);
-        loadState();
+        loadLayer();
         writeState(true);
     }
 
@@ -248,7 +270,8 @@ public class LayerEditFragment extends Fragment implements
     public void onServiceConnected(ComponentName name, IBinder service) {
         mService = ((LedControlService.LocalBinder)service).getService();
         mLedState = mService.getLedState();
-        mService.addLedControllerListener(this);
+        mService.addLedControllerListener(this,
+                LedState.layerScope(mLayerNum) | LedState.SCOPE_PATTERNS);
 
         loadState();
     }
@@ -265,7 +288,11 @@ public class LayerEditFragment extends Fragment implements
     }
 
     @Override
-    public void onLedStateChange(LedState state) {
-        loadState();
+    public void onLedStateChange(LedState state, int changes) {
+        if ((changes & LedState.SCOPE_PATTERNS) != 0) {
+            loadState();
+        } else {
+            loadLayer();
+        }
     }
 }
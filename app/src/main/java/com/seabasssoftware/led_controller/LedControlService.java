@@ -1,40 +1,44 @@
 package com.seabasssoftware.led_controller;
 
 import android.app.Service;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.util.Log;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Set;
-import java.util.UUID;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
 
 public class LedControlService extends Service {
     private static final String TAG = "LedControlService";
+    private static final String DEVICE_NAME = "HC-06";
+
+    // Time allowed for the I/O thread to get to every board before a synced write is due
+    private static final long SYNC_LEAD_NS = 50000000;
 
     private final IBinder mBinder = new LocalBinder();
-    private BluetoothSocket mSocket;
-    private ConnectionState mConnectionState;
-    private CommandSendThread mSendThread;
-    private CommandResponseThread mRespThread;
-    private ArrayList<LedControlListener> mListeners = new ArrayList<LedControlListener>();
-    private LedState mLedState = new LedState();
+
+    // Boards we talk to, each with its own connection. The first one is the board the edit screens
+    // work on.
+    private final ArrayList<LedController> mControllers = new ArrayList<LedController>();
     private Handler mHandler;
 
-    // State of bluetooth connection to LED controller board
+    // One thread writes to every board, rather than a send thread per connection
+    private HandlerThread mIoThread;
+    private Handler mIoHandler;
+
+    private CatalogCache mCatalogCache;
+    private SceneStore mSceneStore;
+    private ArrayList<Scene> mScenes;
+    private Sequencer mSequencer;
+
+    // State of connection to LED controller board
     public enum ConnectionState {DISCONNECTED, CONNECTING, CONNECTED}
 
     // Since this runs in the same process as client, just let the client get a direct reference and
@@ -45,14 +49,25 @@ public class LedControlService extends Service {
         }
     }
 
-    // State updates
+    // State updates. LED state changes carry the LedState.SCOPE_* bits that changed.
     public interface LedControlListener {
         void onConnectionStateChange(ConnectionState newState);
-        void onLedStateChange(LedState state);
+        void onLedStateChange(LedState state, int changes);
+    }
+
+    // Outcome of a synchronized group send. Skew is the spread of the times the boards are
+    // estimated to have applied the command, the error bound is how far those estimates may be off.
+    public interface SyncListener {
+        void onSyncApplied(int boards, long skewNs, long errorBoundNs);
     }
 
     public LedState getLedState() {
-        return mLedState;
+        return getPrimaryController().getLedState();
+    }
+
+    // Primary board's state as of its last change, safe to read from any thread
+    public LedState.Snapshot getSnapshot() {
+        return getPrimaryController().getSnapshot();
     }
 
     @Override
@@ -66,252 +81,400 @@ public class LedControlService extends Service {
         super.onCreate();
 
         mHandler = new Handler();
-        startConnecting(0);
+        mIoThread = new HandlerThread("LedIo");
+        mIoThread.start();
+        mIoHandler = new Handler(mIoThread.getLooper());
+        mCatalogCache = new CatalogCache(new File(getFilesDir(), "catalogs"));
+        mSceneStore = new SceneStore(new File(getFilesDir(), "scenes.bin"));
+        mScenes = mSceneStore.load();
+
+        // Primary board keeps the file names it had before there could be more than one
+        LedController primary = new LedController(DEVICE_NAME, mHandler, mIoHandler,
+                new StateCache(new File(getFilesDir(), "led_state.bin")), mCatalogCache,
+                getSharedPreferences("connection", MODE_PRIVATE));
+        mControllers.add(primary);
+
+        primary.startConnecting(0);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
 
-        if(mSocket != null) {
-            try {
-                mSocket.close();
-            } catch (IOException e) {
-                Log.w(TAG, "Failed to close socket", e);
+        stopTimeline();
+        stopRecording();
+        for(LedController c: mControllers) c.close();
+
+        // Every board's sender is stopped and its link closed, so nothing is left for the I/O
+        // thread but a write that is failing
+        mIoThread.quitSafely();
+    }
+
+    // Add another board by its Bluetooth MAC address and start connecting to it. Every HC-06 module
+    // has the same name, so only the primary board is looked up by name. Returns the existing
+    // controller if there already is one with this address, or null if it isn't an address.
+    public LedController addController(String deviceAddress) {
+        if(!BluetoothTransport.isAddress(deviceAddress)) {
+            Log.w(TAG, "Not a Bluetooth address: " + deviceAddress);
+            return null;
+        }
+        return addController(deviceAddress, null);
+    }
+
+    // Add another board reached through the given transport, or at the Bluetooth address given as
+    // its id if null
+    public LedController addController(String id, LedTransport.Factory factory) {
+        LedController c = getController(id);
+        if(c != null) return c;
+
+        String key = Integer.toHexString(id.hashCode());
+        c = new LedController(id, mHandler, mIoHandler,
+                new StateCache(new File(getFilesDir(), "led_state-" + key + ".bin")),
+                mCatalogCache, getSharedPreferences("connection-" + key, MODE_PRIVATE));
+        if(factory != null) c.setTransportFactory(factory);
+        mControllers.add(c);
+
+        c.startConnecting(0);
+        return c;
+    }
+
+    // Disconnect from a board and stop managing it. The primary board can't be removed.
+    public void removeController(String id) {
+        for(int i = 1; i < mControllers.size(); i++) {
+            if(mControllers.get(i).getId().equals(id)) {
+                mControllers.remove(i).close();
+                return;
             }
-            mSocket = null;
         }
     }
 
-    public void addLedControllerListener(LedControlListener l) {
-        mListeners.add(l);
+    public LedController getController(String id) {
+        for(LedController c: mControllers) {
+            if(c.getId().equals(id)) return c;
+        }
+        return null;
     }
 
-    public void removeLedControllerListener(LedControlListener l) {
-        mListeners.remove(l);
+    public LedController getPrimaryController() {
+        return mControllers.get(0);
     }
 
-    private void fireConnectionStateChangeEvent() {
-        Log.d(TAG, "Connection status: " + mConnectionState.toString());
-        for(LedControlListener l: mListeners) l.onConnectionStateChange(mConnectionState);
+    public List<LedController> getControllers() {
+        return new ArrayList<LedController>(mControllers);
     }
 
-    private void fireLedStateChangeEvent() {
-        for(LedControlListener l: mListeners) l.onLedStateChange(mLedState);
+    // Send the same command to every board. Each board's queue and send thread take it from here,
+    // so a group update takes as long as the slowest board rather than all of them in turn.
+    public void sendCommandToAll(String cmd) {
+        for(LedController c: mControllers) c.sendCommand(cmd);
     }
 
-    public boolean isConnected() {
-        return mRespThread != null && mRespThread.isAlive();
+    // Send the same command to the boards with the given ids, ignoring ids we don't know
+    public void sendCommandToGroup(Collection<String> ids, String cmd) {
+        for(LedController c: mControllers) {
+            if(ids.contains(c.getId())) c.sendCommand(cmd);
+        }
     }
 
-    public void startConnecting(long delayMs) {
-        mHandler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                if(mConnectionState != ConnectionState.CONNECTING) {
-                    // Stop send thread if running
-                    if (mSendThread != null && mSendThread.isAlive()) {
-                        mSendThread.sendCommand("<END>");
-                    }
+    // Send the same command to a group so that every board applies it at the same moment. Each
+    // board's write is scheduled ahead by that board's measured link delay, and the listener, if
+    // any, hears the resulting skew once all writes are done. Boards that aren't connected get the
+    // command whenever they connect and are left out of the measurement.
+    public void sendCommandToGroupSynced(Collection<String> ids, final String cmd,
+                                         final SyncListener listener) {
+        final ArrayList<LedController> group = new ArrayList<LedController>();
+        long maxDelayNs = 0;
+        for(LedController c: mControllers) {
+            if(!ids.contains(c.getId())) continue;
+
+            if(c.isConnected()) {
+                group.add(c);
+                maxDelayNs = Math.max(maxDelayNs, c.getClockEstimator().getDelayNs());
+            } else {
+                c.sendCommand(cmd);
+            }
+        }
+        if(group.isEmpty()) return;
 
-                    // Close socket if open -- this will kill receive thread if it is running
-                    if (mSocket != null) {
-                        try {
-                            mSocket.close();
-                        } catch (IOException e) {
-                            // Nothing to do
-                        }
-                    }
+        final long applyAtNs = System.nanoTime() + SYNC_LEAD_NS + maxDelayNs;
+        final CommandQueue.Scheduled[] writes = new CommandQueue.Scheduled[group.size()];
+        final Runnable onAllWritten = new Runnable() {
+            private int mRemaining = writes.length;
 
-                    // Kick off connection task
-                    new ConnectorTask().execute();
+            @Override
+            public void run() {
+                if(--mRemaining > 0) return;
+                reportSkew(group, writes, listener);
+            }
+        };
+
+        for(int i = 0; i < writes.length; i++) {
+            final LedController c = group.get(i);
+            final int index = i;
+
+            // Boards that lost the link before the write get the command the usual way, and are
+            // left out of the skew
+            final Runnable onWritten = new Runnable() {
+                @Override
+                public void run() {
+                    if(writes[index].getWrittenNs() < 0) c.sendCommand(cmd);
+                    onAllWritten.run();
+                }
+            };
+            writes[i] = new CommandQueue.Scheduled(cmd,
+                    applyAtNs - c.getClockEstimator().getDelayNs(), new Runnable() {
+                @Override
+                public void run() {
+                    mHandler.post(onWritten);
                 }
+            });
+            if(!c.sendCommandAt(writes[i])) {
+                // Lost the link in the meantime
+                mHandler.post(onWritten);
             }
-        }, delayMs);
+        }
     }
 
-    public void sendCommand(String cmd) {
-        // Try to connect if we aren't already doing it
-        if(isConnected() && mSendThread != null && mSendThread.isAlive()) {
-            mSendThread.sendCommand(cmd);
-        } else {
-            startConnecting(0);
+    private void reportSkew(List<LedController> group, CommandQueue.Scheduled[] writes,
+                            SyncListener listener) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        long errorBound = 0;
+        int boards = 0;
+        for(int i = 0; i < writes.length; i++) {
+            if(writes[i].getWrittenNs() < 0) continue;
+
+            ClockOffsetEstimator clock = group.get(i).getClockEstimator();
+            long appliedNs = writes[i].getWrittenNs() + clock.getDelayNs();
+            first = Math.min(first, appliedNs);
+            last = Math.max(last, appliedNs);
+            errorBound = Math.max(errorBound, clock.getErrorBoundNs());
+            boards++;
         }
+
+        long skew = boards > 0 ? last - first : 0;
+        Log.d(TAG, "Synced send to " + boards + " boards, skew " + skew / 1000 + " us +/- " +
+                errorBound / 1000 + " us");
+        if(listener != null) listener.onSyncApplied(boards, skew, errorBound);
     }
 
-    public void sendCommandIfReady(String cmd) {
-        // Try to connect if we aren't already doing it
-        if(mSendThread != null && mSendThread.isAlive()) {
-            mSendThread.sendCommandIfReady(cmd);
+    public List<Scene> getScenes() {
+        return new ArrayList<Scene>(mScenes);
+    }
+
+    // Save the primary board's current settings as a scene, replacing any scene of the same name
+    public void saveScene(String name) {
+        Scene scene = Scene.capture(name, getLedState());
+        int index = indexOfScene(name);
+        if(index >= 0) {
+            mScenes.set(index, scene);
+        } else {
+            mScenes.add(scene);
         }
+        saveScenes();
     }
 
-    private class CommandSendThread extends Thread {
-        private final LinkedBlockingQueue<String> mInQueue = new LinkedBlockingQueue<String>();
-        private final OutputStream mOutputStream;
+    public void deleteScene(String name) {
+        int index = indexOfScene(name);
+        if(index < 0) return;
 
-        CommandSendThread(OutputStream stream) {
-            mOutputStream = stream;
-        }
+        mScenes.remove(index);
+        saveScenes();
+    }
 
-        @Override
-        public void run() {
-            try {
-                while(true) {
-                    try {
-                        String s = mInQueue.poll(1, TimeUnit.SECONDS);
-
-                        if(s != null) {
-                            // Exit when we get a special string
-                            if(s.equals("<END>")) break;
-
-                            // Otherwise write to stream
-                            mOutputStream.write(s.getBytes());
-                            Log.d(TAG, "Send command: " + s);
-
-                            sleep(100, 0); // Give controller board 100ms to handle message
-                        }
-                    } catch(InterruptedException e) {
-                        // Don't care
-                    }
-                }
-            } catch(IOException e) {
-                Log.w(TAG, "Error sending command: " + e.toString());
-            }
-        }
+    // Switch every board to a saved scene. Each board gets only the settings that differ from
+    // what it has, in a single write.
+    public void recallScene(String name) {
+        int index = indexOfScene(name);
+        if(index < 0) return;
 
-        public void sendCommand(String cmd) {
-            mInQueue.offer(cmd);
-        }
+        for(LedController c: mControllers) c.applyScene(mScenes.get(index));
+    }
 
-        public void sendCommandIfReady(String cmd) {
-            if(mInQueue.isEmpty()) {
-                mInQueue.offer(cmd);
-            }
+    private int indexOfScene(String name) {
+        for(int i = 0; i < mScenes.size(); i++) {
+            if(mScenes.get(i).name.equals(name)) return i;
         }
+        return -1;
     }
 
-    private class CommandResponseThread extends Thread {
-        private final BufferedReader mReader;
+    private void saveScenes() {
+        try {
+            mSceneStore.save(mScenes);
+        } catch(IOException e) {
+            Log.w(TAG, "Failed to save scenes: " + e.toString());
+        }
+    }
 
-        CommandResponseThread(InputStream stream) {
-            mReader = new BufferedReader(new InputStreamReader(stream));
+    // Play a timeline on every connected board at the given frame rate, replacing any timeline
+    // already playing. A frame is skipped unless every board has sent the one before it.
+    //
+    // Frames go straight to the boards, each mapped with that board's own curves and catalog, and
+    // skip the boards' LedState. Once playback is over the boards are no longer known to have what
+    // their state says, so the next edit or scene recall sends every setting.
+    public Sequencer playTimeline(Timeline timeline, int fps, boolean loop) {
+        stopTimeline();
+
+        final List<LedController> group = getControllers();
+        final LedState[] frameStates = new LedState[group.size()];
+        for(int i = 0; i < frameStates.length; i++) {
+            frameStates[i] = group.get(i).getLedState().copyMapping();
         }
+        mSequencer = new Sequencer(timeline, fps, loop, new Sequencer.FrameSink() {
+            @Override
+            public boolean isReady() {
+                for(LedController c: group) {
+                    if(!c.isSendQueueEmpty()) return false;
+                }
+                return true;
+            }
 
-        @Override
-        public void run() {
-            try {
-                for(String s = mReader.readLine(); s != null; s = mReader.readLine()) {
-                    final String line = s;
-
-                    // Handle responses in main thread
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            Log.d(TAG, "RESPONSE: " + line);
-                            mLedState.updateFromString(line);
-                            fireLedStateChangeEvent();
-                        }
-                    });
+            @Override
+            public void sendFrame(Scene frame) {
+                for(int i = 0; i < frameStates.length; i++) {
+                    frame.applyTo(frameStates[i]);
+                    String cmd = frameStates[i].getChangedCommand();
+                    if(!cmd.isEmpty()) group.get(i).streamCommand(cmd);
                 }
-            } catch(IOException e) {
-                Log.w(TAG, "Error reading command: " + e.toString());
             }
 
-            // Reconnect if we get an IO error
-            startConnecting(0);
+            @Override
+            public void onFinished() {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for(LedController c: group) c.getLedState().invalidateSynced();
+                    }
+                });
+            }
+        });
+        mSequencer.start();
+        return mSequencer;
+    }
+
+    public void stopTimeline() {
+        if(mSequencer == null) return;
+
+        mSequencer.stop();
+        Log.d(TAG, String.format("Timeline sent %d frames, dropped %d, %.1f of %d fps",
+                mSequencer.getFramesSent(), mSequencer.getFramesDropped(),
+                mSequencer.getAchievedFps(), mSequencer.getTargetFps()));
+        mSequencer = null;
+    }
+
+    // Timeline being played, for its frame rate stats, or null
+    public Sequencer getSequencer() {
+        return mSequencer;
+    }
+
+    // Link and pipeline metrics for the primary board
+    public LinkMetrics getLinkMetrics() {
+        return getPrimaryController().getMetrics();
+    }
+
+    // Human readable metrics for every board, for the debug screen and bug reports
+    public String getMetricsReport() {
+        StringBuilder sb = new StringBuilder();
+        for(LedController c: mControllers) {
+            LinkMetrics m = c.getMetrics();
+            sb.append(c.getId()).append(": ").append(c.getConnectionState()).append('\n');
+            sb.append(String.format(Locale.US, "  queue depth now %d, at send %s\n",
+                    c.getQueueDepth(), m.queueDepth));
+            sb.append("  enqueue to write us ").append(m.enqueueToWriteUs).append('\n');
+            sb.append("  write to echo us ").append(m.writeToEchoUs).append('\n');
+            sb.append("  edit to confirm us ").append(m.editToConfirmUs).append('\n');
+            sb.append(String.format(Locale.US, "  sent %d B (%.0f B/s), received %d B (%.0f B/s)\n",
+                    m.bytesSent.getTotal(), m.bytesSent.getRate(),
+                    m.bytesReceived.getTotal(), m.bytesReceived.getRate()));
+            sb.append(String.format(Locale.US, "  commands sent %d, coalesced %d, dropped %d\n",
+                    m.getCommandsSent(), c.getCoalescedCount(), m.getCommandsDropped()));
+            sb.append(String.format(Locale.US, "  parse failures %d\n",
+                    c.getLedState().getParseFailureCount()));
+            sb.append(String.format(Locale.US, "  connects %d, reconnects %d, failures %d\n",
+                    m.getConnects(), m.getReconnects(), m.getConnectFailures()));
+            sb.append("  connect ms ").append(m.connectMs).append('\n');
+            sb.append(String.format(Locale.US,
+                    "  pacer %.0f B/s, delivered %.0f B/s, delay %d us\n",
+                    c.getPacer().getRate(), c.getPacer().getDeliveredRate(),
+                    c.getClockEstimator().getDelayNs() / 1000));
+            sb.append('\n');
         }
+        return sb.toString();
     }
 
-    private class ConnectorTask extends AsyncTask<Void, Void, BluetoothSocket> {
-        private final BluetoothAdapter mBtAdapter = BluetoothAdapter.getDefaultAdapter();
-        private final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805f9b34fb");
+    // Record traffic with the primary board to files/traffic.bin, continuing an earlier recording
+    // if there is one. Replay it later with TrafficReplay.
+    public void startRecording() throws IOException {
+        LedController primary = getPrimaryController();
+        if(primary.getRecorder() != null) return;
 
-        @Override
-        protected void onPreExecute() {
-            mConnectionState = ConnectionState.CONNECTING;
-            fireConnectionStateChangeEvent();
+        primary.setRecorder(new TrafficRecorder(new File(getFilesDir(), "traffic.bin"),
+                TrafficRecorder.DEFAULT_CAPACITY));
+    }
+
+    public void stopRecording() {
+        LedController primary = getPrimaryController();
+        TrafficRecorder recorder = primary.getRecorder();
+        if(recorder == null) return;
+
+        primary.setRecorder(null);
+        try {
+            recorder.close();
+        } catch(IOException e) {
+            Log.w(TAG, "Failed to close traffic recording: " + e.toString());
         }
+    }
 
-        @Override
-        protected BluetoothSocket doInBackground(Void ...args) {
-            Set<BluetoothDevice> pairedDevices = mBtAdapter.getBondedDevices();
+    // Set how many commands may be waiting for an ack from each board. Takes effect on next
+    // connect.
+    public void setFlowControlWindow(int window) {
+        for(LedController c: mControllers) c.setFlowControlWindow(window);
+    }
 
+    // Set how to reach the primary board, e.g. a TcpTransport or PipeTransport instead of
+    // Bluetooth. Takes effect on next connect.
+    public void setTransportFactory(LedTransport.Factory factory) {
+        getPrimaryController().setTransportFactory(factory);
+    }
 
-            // Look for HC-06 device and connect, otherwise return null
-            for (BluetoothDevice dev : pairedDevices) {
-                if (dev.getName().equals("HC-06")) {
-                    BluetoothSocket sock;
+    public void addLedControllerListener(LedControlListener l) {
+        getPrimaryController().addListener(l);
+    }
 
-                    // Create socket
-                    try {
-                        sock = dev.createRfcommSocketToServiceRecord(SPP_UUID);
-                    } catch(IOException e) {
-                        Log.w(TAG, "Error creating bluetooth socket: " + e.toString());
-                        return null;
-                    }
+    // Listen for primary board connection changes and for LED state changes in any of the given
+    // scopes only
+    public void addLedControllerListener(LedControlListener l, int scopes) {
+        getPrimaryController().addListener(l, scopes);
+    }
 
-                    // Try to connect
-                    try {
-                        // First try normal method
-                        sock.connect();
-                    } catch(IOException e) {
-                        // If that fails try again using this workaround with a non-public API method
-                        try {
-                            Log.w(TAG, "Using fallback socket connection");
-                            sock = (BluetoothSocket) dev.getClass().getMethod("createRfcommSocket", new Class[]{int.class}).invoke(dev, 1);
-                            sock.connect();
-                        } catch(Exception e2) {
-                            Log.w(TAG, "Failed to connect bluetooth: " + e.toString());
-                            return null;
-                        }
-                    }
+    public void removeLedControllerListener(LedControlListener l) {
+        getPrimaryController().removeListener(l);
+    }
 
-                    return sock;
-                }
-            }
+    public boolean isConnected() {
+        return getPrimaryController().isConnected();
+    }
 
-            Log.w(TAG, "Failed to find device");
-            return null;
-        }
+    public void startConnecting(long delayMs) {
+        getPrimaryController().startConnecting(delayMs);
+    }
 
-        @Override
-        protected void onPostExecute(BluetoothSocket s) {
-            try {
-                if(s == null) {
-                    mConnectionState = ConnectionState.DISCONNECTED;
-                } else {
-                    // Set up connection objects
-                    InputStream in = s.getInputStream();
-                    OutputStream out = s.getOutputStream();
-                    mSocket = s;
-
-                    // Kick off communcation threads
-                    mRespThread = new CommandResponseThread(in);
-                    mRespThread.start();
-
-                    mSendThread = new CommandSendThread(out);
-                    mSendThread.start();
-
-                    // Request layer options and current state of everything from LED board
-                    mSendThread.sendCommand("l");
-                    mSendThread.sendCommand("c");
-
-                    mConnectionState = ConnectionState.CONNECTED;
-                }
-            } catch(IOException e) {
-                mConnectionState = ConnectionState.DISCONNECTED;
-                Log.w(TAG, "Error getting BT socket streams: " + s.toString());
-            }
+    // Recent connection attempts to the primary board, oldest first
+    public List<ReconnectPolicy.Attempt> getReconnectHistory() {
+        return getPrimaryController().getReconnectHistory();
+    }
 
-            // If connection attempt fails, retry in three seconds
-            if(mConnectionState == ConnectionState.DISCONNECTED) {
-                Log.d(TAG, "Retrying connection in 3 seconds");
-                startConnecting(3000);
-            }
+    public CommandReceipt sendCommand(String cmd) {
+        return getPrimaryController().sendCommand(cmd);
+    }
 
-            // Let everyone know the new state if any
-            fireConnectionStateChangeEvent();
-        }
+    // Send to the primary board, calling the listener on the main thread once it is confirmed or
+    // has failed
+    public CommandReceipt sendCommand(String cmd, CommandReceipt.Listener listener) {
+        return getPrimaryController().sendCommand(cmd, listener);
+    }
+
+    public CommandReceipt sendCommandIfReady(String cmd) {
+        return getPrimaryController().sendCommandIfReady(cmd);
     }
 }
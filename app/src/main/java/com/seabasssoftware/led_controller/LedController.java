@@ -0,0 +1,928 @@
+package com.seabasssoftware.led_controller;
+
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.seabasssoftware.led_controller.LedControlService.ConnectionState;
+import com.seabasssoftware.led_controller.LedControlService.LedControlListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Connection to one LED controller board: its transport, send queue and sender, response reader
+// thread, LedState and caches. Each board has its own pipeline so a slow or missing board never
+// holds up the others. All methods are called on the main thread.
+//
+// Writes run on an I/O looper shared by all boards. The sender only runs when there's something
+// to write, a slot or tokens free up, or a scheduled command comes due, so an idle link costs
+// nothing. Writes to a Bluetooth socket block, so a stalled link would hold up every board: a
+// write that takes longer than WRITE_TIMEOUT_MS gets its link closed from the main thread, which
+// ends the write and reconnects. Reads still need a thread per link, as Bluetooth sockets only
+// have blocking streams.
+public class LedController {
+    private static final String TAG = "LedController";
+    private static final int RESPONSE_QUEUE_SIZE = 64;
+    private static final long STATE_SAVE_DELAY_MS = 2000;
+
+    // How long to wait for the board to identify itself before asking for the pattern catalog
+    private static final long VERSION_TIMEOUT_MS = 500;
+
+    // Longest a write may block the shared I/O thread before the link is given up on
+    private static final long WRITE_TIMEOUT_MS = 2000;
+
+    // Where the last good connection is remembered across restarts
+    private static final String PREF_LAST_ADDRESS = "lastAddress";
+    private static final String PREF_LAST_METHOD = "lastMethod";
+
+    private final String mId;
+    private final Handler mHandler;
+    private final Handler mIoHandler;
+    private final StateCache mStateCache;
+    private final CatalogCache mCatalogCache;
+    private final SharedPreferences mPrefs;
+    private final ReconnectPolicy mReconnect = new ReconnectPolicy();
+    private final ClockOffsetEstimator mClock = new ClockOffsetEstimator();
+    private final LinkRatePacer mPacer = new LinkRatePacer();
+    private final LinkMetrics mMetrics = new LinkMetrics();
+
+    // Commands coalesced on earlier connections' send queues
+    private int mCoalescedBefore = 0;
+
+    // Sequence number of the last command given a receipt
+    private final AtomicLong mLastSeq = new AtomicLong();
+
+    // Boards added by Bluetooth address connect to that device. Otherwise go straight to the board
+    // that worked last time if we know it, or look it up by name.
+    private LedTransport.Factory mTransportFactory = new LedTransport.Factory() {
+        @Override
+        public LedTransport create() throws IOException {
+            if(BluetoothTransport.isAddress(mId)) {
+                return BluetoothTransport.find(mId, mReconnect.getLastMethod(), null);
+            }
+            return BluetoothTransport.find(mReconnect.getLastAddress(), mReconnect.getLastMethod(),
+                    mId);
+        }
+    };
+    private LedTransport mTransport;
+    private ConnectionState mConnectionState = ConnectionState.DISCONNECTED;
+    private volatile CommandSender mSender;
+    private CommandResponseThread mRespThread;
+    private ArrayList<Subscription> mListeners = new ArrayList<Subscription>();
+    private LedState mLedState = new LedState();
+
+    // Latest state for other threads, replaced as a whole whenever the main thread changes it
+    private final AtomicReference<LedState.Snapshot> mSnapshot =
+            new AtomicReference<LedState.Snapshot>();
+    private int mFlowControlWindow = FlowControl.DEFAULT_WINDOW;
+    private boolean mClosed = false;
+
+    // Uptime at which the scheduled connection attempt runs
+    private long mConnectDueMs = 0;
+
+    // Where to log lines to and from the board, or null when not recording
+    private volatile TrafficRecorder mRecorder;
+
+    // Identity of the board the current pattern catalog came from, null if unknown
+    private String mCatalogIdentity;
+    private boolean mCatalogDirty = false;
+
+    // Ask for pattern catalog if the board doesn't say who it is in time
+    private final Runnable mRequestCatalog = new Runnable() {
+        @Override
+        public void run() {
+            requestCatalog(null);
+        }
+    };
+
+    private final Runnable mConnect = new Runnable() {
+        @Override
+        public void run() {
+            if(mConnectionState != ConnectionState.CONNECTING && !mClosed) {
+                // Close link if open -- this will kill receive thread if it is running
+                stopSender();
+                closeQuietly(mTransport);
+
+                // Its reader is on the way out, don't take its exit for a drop of the new link
+                mRespThread = null;
+
+                // Kick off connection task. Boards connect in parallel rather than queueing
+                // behind each other on the default serial executor.
+                new ConnectorTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
+        }
+    };
+
+    // Save state a little while after the last change rather than on every one
+    private final Runnable mSaveState = new Runnable() {
+        @Override
+        public void run() {
+            saveState();
+        }
+    };
+
+    // Listener with the scopes it wants LED state changes for
+    private static class Subscription {
+        final LedControlListener listener;
+        final int scopes;
+
+        Subscription(LedControlListener listener, int scopes) {
+            this.listener = listener;
+            this.scopes = scopes;
+        }
+    }
+
+    // The id is the board's Bluetooth address, or the device name to look for, unless another
+    // transport factory is set. Writes go out on the I/O handler's thread.
+    LedController(String id, Handler handler, Handler ioHandler, StateCache stateCache,
+                  CatalogCache catalogCache, SharedPreferences prefs) {
+        mId = id;
+        mHandler = handler;
+        mIoHandler = ioHandler;
+        mStateCache = stateCache;
+        mCatalogCache = catalogCache;
+        mPrefs = prefs;
+
+        // Show last known state until the board tells us otherwise
+        LedState cached = mStateCache.load();
+        if(cached != null) {
+            mLedState = cached;
+        }
+        mSnapshot.set(mLedState.snapshot());
+
+        mReconnect.setLastConnection(mPrefs.getString(PREF_LAST_ADDRESS, null),
+                mPrefs.getString(PREF_LAST_METHOD, null));
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    // Working state, only to be used on the main thread
+    public LedState getLedState() {
+        return mLedState;
+    }
+
+    // Consistent copy of the state as of the last change, safe to read from any thread. Its
+    // version goes up with every change.
+    public LedState.Snapshot getSnapshot() {
+        return mSnapshot.get();
+    }
+
+    public ConnectionState getConnectionState() {
+        return mConnectionState;
+    }
+
+    // Delay between writing a command and the board applying it, measured on the current link
+    public ClockOffsetEstimator getClockEstimator() {
+        return mClock;
+    }
+
+    // Write rate limit for this board, adjusted to what its link sustains
+    public LinkRatePacer getPacer() {
+        return mPacer;
+    }
+
+    public LinkMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    // Commands replaced by a newer value for the same setting before being sent
+    public int getCoalescedCount() {
+        CommandSender t = mSender;
+        return mCoalescedBefore + (t != null ? t.getCoalescedCount() : 0);
+    }
+
+    // Commands waiting to be sent right now
+    public int getQueueDepth() {
+        CommandSender t = mSender;
+        return t != null ? t.getQueueDepth() : 0;
+    }
+
+    // Log every line sent to and received from the board, or stop if null. Recording happens on
+    // the send and response threads, so it costs the main thread nothing.
+    public void setRecorder(TrafficRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    public TrafficRecorder getRecorder() {
+        return mRecorder;
+    }
+
+    // Stop talking to the board for good, saving its state
+    void close() {
+        mClosed = true;
+        mHandler.removeCallbacks(mSaveState);
+        mHandler.removeCallbacks(mConnect);
+        mHandler.removeCallbacks(mRequestCatalog);
+        saveState();
+
+        stopSender();
+        closeQuietly(mTransport);
+        mTransport = null;
+    }
+
+    // Set how many commands may be waiting for an ack from the board. Takes effect on next connect.
+    public void setFlowControlWindow(int window) {
+        mFlowControlWindow = window;
+    }
+
+    // Set how to reach the board, e.g. a TcpTransport or PipeTransport instead of Bluetooth. Takes
+    // effect on next connect.
+    public void setTransportFactory(LedTransport.Factory factory) {
+        mTransportFactory = factory;
+    }
+
+    public void addListener(LedControlListener l) {
+        addListener(l, LedState.SCOPE_ALL);
+    }
+
+    // Listen for connection changes and for LED state changes in any of the given scopes only
+    public void addListener(LedControlListener l, int scopes) {
+        removeListener(l);
+        mListeners.add(new Subscription(l, scopes));
+    }
+
+    public void removeListener(LedControlListener l) {
+        for(int i = 0; i < mListeners.size(); i++) {
+            if(mListeners.get(i).listener == l) {
+                mListeners.remove(i);
+                return;
+            }
+        }
+    }
+
+    private void fireConnectionStateChangeEvent() {
+        Log.d(TAG, mId + " connection status: " + mConnectionState.toString());
+        for(Subscription s: mListeners) s.listener.onConnectionStateChange(mConnectionState);
+    }
+
+    private void fireLedStateChangeEvent(int changes) {
+        if(changes == LedState.SCOPE_NONE) return;
+
+        for(Subscription s: mListeners) {
+            if((s.scopes & changes) != 0) s.listener.onLedStateChange(mLedState, changes);
+        }
+    }
+
+    public boolean isConnected() {
+        return mRespThread != null && mRespThread.isAlive();
+    }
+
+    // Connect after the given delay, replacing any connection attempt already scheduled
+    public void startConnecting(long delayMs) {
+        mConnectDueMs = SystemClock.uptimeMillis() + delayMs;
+        mHandler.removeCallbacks(mConnect);
+        mHandler.postDelayed(mConnect, delayMs);
+    }
+
+    // Recent connection attempts, oldest first, for diagnosing flaky links
+    public List<ReconnectPolicy.Attempt> getReconnectHistory() {
+        return mReconnect.getHistory();
+    }
+
+    // Link dropped after being connected
+    private void onDisconnected(boolean clean) {
+        stopSender();
+        mConnectionState = ConnectionState.DISCONNECTED;
+        fireConnectionStateChangeEvent();
+
+        mReconnect.onDisconnect(clean);
+        startConnecting(mReconnect.nextDelayMs());
+    }
+
+    // State was changed on the main thread: publish it to other threads and save it soon
+    private void onStateChanged() {
+        mSnapshot.set(mLedState.snapshot());
+        mHandler.removeCallbacks(mSaveState);
+        mHandler.postDelayed(mSaveState, STATE_SAVE_DELAY_MS);
+    }
+
+    private void saveState() {
+        // Write the snapshot off the main thread. The serial executor keeps saves in order.
+        final LedState.Snapshot snapshot = mLedState.snapshot();
+        mSnapshot.set(snapshot);
+
+        // Catalog has had time to finish arriving by now
+        final String catalogIdentity = mCatalogDirty ? mCatalogIdentity : null;
+        if(catalogIdentity != null) mCatalogDirty = false;
+
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mStateCache.save(snapshot);
+                } catch(IOException e) {
+                    Log.w(TAG, "Failed to save state for " + mId + ": " + e.toString());
+                }
+
+                if(catalogIdentity == null) return;
+                try {
+                    mCatalogCache.save(catalogIdentity, snapshot);
+                } catch(IOException e) {
+                    Log.w(TAG, "Failed to save catalog for " + mId + ": " + e.toString());
+                }
+            }
+        });
+    }
+
+    // Use the pattern catalog we already have or a cached one for this board if possible,
+    // otherwise ask the board for it
+    private void onFirmwareIdentified() {
+        mHandler.removeCallbacks(mRequestCatalog);
+        if(mTransport == null) return;
+
+        String identity = CatalogCache.identity(mTransport.getAddress(), mLedState);
+        if(identity != null && identity.equals(mCatalogIdentity) && !mLedState.patterns.isEmpty()) {
+            Log.d(TAG, "Pattern catalog unchanged");
+        } else if(identity != null && mCatalogCache.load(identity, mLedState)) {
+            Log.d(TAG, "Using cached pattern catalog for " + identity);
+            mCatalogIdentity = identity;
+            mCatalogDirty = false;
+        } else {
+            requestCatalog(identity);
+        }
+    }
+
+    private void requestCatalog(String identity) {
+        mHandler.removeCallbacks(mRequestCatalog);
+        mCatalogIdentity = identity;
+        mCatalogDirty = true;
+        if(mSender != null) mSender.sendCommand("l");
+    }
+
+    private boolean isSending() {
+        return mSender != null && !mSender.isStopped();
+    }
+
+    // Stop writing to the current link, keeping count of commands coalesced on it
+    private void stopSender() {
+        if(mSender == null) return;
+
+        mSender.stop();
+        mCoalescedBefore += mSender.getCoalescedCount();
+        mSender = null;
+    }
+
+    // Queue command for the board, connecting first if needed. Never blocks, the send thread
+    // writes it out.
+    public CommandReceipt sendCommand(String cmd) {
+        return sendCommand(cmd, null);
+    }
+
+    // Same, calling the listener on the main thread once the board has confirmed the command or
+    // it failed. The receipt can also be waited on from another thread.
+    public CommandReceipt sendCommand(String cmd, CommandReceipt.Listener listener) {
+        onStateChanged();
+        CommandReceipt receipt = newReceipt(listener);
+
+        // Try to connect if we aren't already doing it or waiting to
+        if(isConnected() && isSending()) {
+            mSender.sendCommand(cmd, receipt);
+        } else {
+            receipt.fail(System.nanoTime());
+
+            // Leave a backoff in place, a failing board would otherwise be retried on every edit
+            if(mConnectionState != ConnectionState.CONNECTING &&
+                    SystemClock.uptimeMillis() >= mConnectDueMs) {
+                startConnecting(0);
+            }
+        }
+        return receipt;
+    }
+
+    public CommandReceipt sendCommandIfReady(String cmd) {
+        return sendCommandIfReady(cmd, null);
+    }
+
+    public CommandReceipt sendCommandIfReady(String cmd, CommandReceipt.Listener listener) {
+        // Don't kick off a connection for intermediate updates. Pending updates to the same setting
+        // are replaced by this one, so the last value always goes out.
+        onStateChanged();
+        CommandReceipt receipt = newReceipt(listener);
+        if(isSending()) {
+            mSender.sendCommand(cmd, receipt);
+        } else {
+            receipt.fail(System.nanoTime());
+            mMetrics.onCommandDropped();
+        }
+        return receipt;
+    }
+
+    private CommandReceipt newReceipt(final CommandReceipt.Listener listener) {
+        CommandReceipt receipt = new CommandReceipt(mLastSeq.incrementAndGet(), System.nanoTime());
+        if(listener != null) {
+            receipt.setListener(new CommandReceipt.Listener() {
+                @Override
+                public void onCommandDone(final CommandReceipt r) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onCommandDone(r);
+                        }
+                    });
+                }
+            });
+        }
+        return receipt;
+    }
+
+    // Write command at the scheduled time, bypassing the coalescing queue. Returns false if not
+    // connected, in which case nothing is sent.
+    public boolean sendCommandAt(CommandQueue.Scheduled cmd) {
+        if(!isConnected() || !isSending()) return false;
+
+        onStateChanged();
+        mSender.sendCommandAt(cmd);
+        return true;
+    }
+
+    // Whether everything queued so far has been written. Safe to call from any thread.
+    public boolean isSendQueueEmpty() {
+        CommandSender t = mSender;
+        return t == null || t.isQueueEmpty();
+    }
+
+    // Replay target that queues the app's side of a recorded conversation on this board, so it
+    // goes through the same coalescing, flow control and pacing as live edits. Lines are dropped
+    // while there is no link, as streamed commands are.
+    public TrafficReplay.Target replayTarget() {
+        return new TrafficReplay.Target() {
+            @Override
+            public void onOutbound(String line) {
+                streamCommand(line + "\n");
+            }
+
+            @Override
+            public void onInbound(String line) {
+                // The board on the far end answers for itself
+            }
+        };
+    }
+
+    // Queue command from any thread, e.g. for streaming. Dropped if there is no link.
+    public void streamCommand(String cmd) {
+        CommandSender t = mSender;
+        if(t != null && !t.isStopped()) {
+            t.sendCommand(cmd);
+        } else {
+            mMetrics.onCommandDropped();
+        }
+    }
+
+    // Write commands out as one burst, ahead of anything waiting in the queue. Queued lines for
+    // the same settings are dropped so they can't undo it afterwards. Falls back to the queue,
+    // connecting if needed, when there's no link.
+    public void sendBurst(String cmd) {
+        if(!sendCommandAt(new CommandQueue.Scheduled(cmd, System.nanoTime(), null))) {
+            sendCommand(cmd);
+        }
+    }
+
+    // Switch to a scene, sending only the settings the board doesn't already have
+    public void applyScene(Scene scene) {
+        int changes = scene.applyTo(mLedState);
+        String cmd = mLedState.getChangedCommand();
+        if(!cmd.isEmpty()) sendBurst(cmd);
+        fireLedStateChangeEvent(changes);
+    }
+
+    // Writes queued commands to the link from the I/O thread. Runs whenever it is woken and writes
+    // at most one command per run, so boards sharing the I/O thread take turns. Scheduled commands
+    // go out on the I/O handler's timers, so up to a millisecond late.
+    private class CommandSender implements Runnable {
+        private final CommandQueue mInQueue = new CommandQueue();
+        private final OutputStream mOutputStream;
+        private final FlowControl mFlowControl;
+        private volatile boolean mBinaryProtocol = false;
+        private volatile boolean mStopped = false;
+
+        // Set while a run is posted and hasn't started yet, so bursts of commands only post once
+        private final AtomicBoolean mPosted = new AtomicBoolean(false);
+
+        // Closes a link whose write has blocked the I/O thread too long, runs on the main thread
+        private final Runnable mWriteStalled = new Runnable() {
+            @Override
+            public void run() {
+                if(mSender != CommandSender.this) return;
+
+                Log.w(TAG, "Write to " + mId + " stalled, closing link");
+                closeQuietly(mTransport);
+            }
+        };
+
+        // Wakes the sender when whatever it was waiting for should be over
+        private final Runnable mTimer = new Runnable() {
+            @Override
+            public void run() {
+                wake();
+            }
+        };
+
+        CommandSender(OutputStream stream, FlowControl flowControl) {
+            mOutputStream = stream;
+            mFlowControl = flowControl;
+        }
+
+        @Override
+        public void run() {
+            mPosted.set(false);
+            if(mStopped) return;
+
+            CommandQueue.Scheduled due = null;
+            try {
+                // Scheduled commands go out on time as one write, ahead of the window so they
+                // aren't held up behind commands waiting for acks
+                due = mInQueue.pollDue();
+                if(due != null) {
+                    write(due.cmd, null, due);
+                    due.markWritten(System.nanoTime());
+                    wake();
+                    return;
+                }
+
+                long nextDueNs = mInQueue.getNextDueNs();
+                long untilDueNs = nextDueNs == Long.MAX_VALUE ?
+                        Long.MAX_VALUE : nextDueNs - System.nanoTime();
+                if(mInQueue.isEmpty()) {
+                    // Nothing to do until a command is queued
+                    schedule(untilDueNs);
+                    return;
+                }
+
+                // Wait until the board can take another command and the link has room for it
+                // before picking one, so updates keep coalescing in the queue in the meantime.
+                // An ack wakes us early.
+                long blockedNs = Math.max(
+                        TimeUnit.MILLISECONDS.toNanos(mFlowControl.getSlotDelayMs()),
+                        mPacer.getTokenDelayNs());
+                if(blockedNs > 0) {
+                    schedule(Math.min(blockedNs, untilDueNs));
+                    return;
+                }
+
+                String s = mInQueue.poll();
+                mMetrics.queueDepth.add(mInQueue.size() + 1);
+                write(s, mInQueue.getPolledReceipts(), null);
+                mMetrics.enqueueToWriteUs.add(
+                        (System.nanoTime() - mInQueue.getPolledEnqueuedNs()) / 1000);
+                wake();
+            } catch(IOException e) {
+                Log.w(TAG, "Error sending command: " + e.toString());
+                if(due != null) due.fail(System.nanoTime());
+                stop();
+            }
+        }
+
+        // Run again as soon as the I/O thread gets to it
+        void wake() {
+            if(!mStopped && mPosted.compareAndSet(false, true)) {
+                mIoHandler.post(this);
+            }
+        }
+
+        // Run again after the given time, rounded up to whole milliseconds, or sooner if woken.
+        // Long.MAX_VALUE just waits for wake().
+        private void schedule(long delayNs) {
+            mIoHandler.removeCallbacks(mTimer);
+            if(delayNs == Long.MAX_VALUE) return;
+            mIoHandler.postDelayed(mTimer, Math.max(1, (delayNs + 999999) / 1000000));
+        }
+
+        // Drop anything still queued or waiting for an ack, failing its receipts. Takes effect
+        // before the next run, from any thread.
+        void stop() {
+            mStopped = true;
+            mIoHandler.removeCallbacks(this);
+            mIoHandler.removeCallbacks(mTimer);
+            mInQueue.clear();
+            mFlowControl.abandon();
+        }
+
+        boolean isStopped() {
+            return mStopped;
+        }
+
+        // Write command lines to stream in one go, as binary frames if the board supports them.
+        // Receipts, if any, are for every line written, except that a scheduled command has its
+        // own for each line.
+        private void write(String cmd, List<CommandReceipt> receipts,
+                           CommandQueue.Scheduled scheduled) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(cmd.length());
+            int[] sizes = new int[cmd.length()];
+            int start = 0;
+            for(int n = 0; start < cmd.length(); n++) {
+                int end = cmd.indexOf('\n', start);
+                end = (end < 0) ? cmd.length() : end + 1;
+
+                String line = cmd.substring(start, end);
+                byte[] frame = mBinaryProtocol ? WireProtocol.encode(line) : null;
+                byte[] bytes = frame != null ? frame : line.getBytes();
+                out.write(bytes);
+                sizes[n] = bytes.length;
+                start = end;
+            }
+            mPacer.consume(out.size());
+            mHandler.postDelayed(mWriteStalled, WRITE_TIMEOUT_MS);
+            try {
+                mOutputStream.write(out.toByteArray());
+            } finally {
+                mHandler.removeCallbacks(mWriteStalled);
+            }
+            mMetrics.bytesSent.add(out.size());
+
+            long now = System.nanoTime();
+            TrafficRecorder recorder = mRecorder;
+            start = 0;
+            for(int n = 0; start < cmd.length(); n++) {
+                int end = cmd.indexOf('\n', start);
+                end = (end < 0) ? cmd.length() : end + 1;
+                String line = cmd.substring(start, end);
+                List<CommandReceipt> lineReceipts = scheduled != null ?
+                        scheduled.getReceipts(line) : receipts;
+                if(lineReceipts != null) {
+                    for(CommandReceipt r : lineReceipts) r.onWritten(now);
+                }
+                mFlowControl.onSent(line, sizes[n], lineReceipts);
+                mMetrics.onCommandSent();
+                if(recorder != null) recorder.record(TrafficRecorder.OUTBOUND, now, line);
+                start = end;
+            }
+            Log.d(TAG, "Send command to " + mId + ": " + cmd);
+        }
+
+        public void sendCommand(String cmd) {
+            sendCommand(cmd, null);
+        }
+
+        public void sendCommand(String cmd, CommandReceipt receipt) {
+            mInQueue.offer(cmd, receipt);
+            wake();
+        }
+
+        public void sendCommandAt(CommandQueue.Scheduled cmd) {
+            mInQueue.offerAt(cmd);
+
+            // Stopped in the meantime, fail it rather than leave it in a queue nobody reads
+            if(mStopped) mInQueue.clear();
+            wake();
+        }
+
+        public boolean isQueueEmpty() {
+            return mInQueue.isEmpty();
+        }
+
+        public int getQueueDepth() {
+            return mInQueue.size();
+        }
+
+        public int getCoalescedCount() {
+            return mInQueue.getCoalescedCount();
+        }
+
+        public void setBinaryProtocol(boolean enabled) {
+            Log.d(TAG, "Binary protocol " + (enabled ? "enabled" : "disabled") + " for " + mId);
+            mBinaryProtocol = enabled;
+        }
+    }
+
+    private class CommandResponseThread extends Thread {
+        private final ResponseReader mReader;
+        private final FlowControl mFlowControl;
+        private final CommandSender mSender;
+        private final ResponseQueue mQueue = new ResponseQueue(RESPONSE_QUEUE_SIZE);
+
+        // Set while a drain is posted and hasn't started yet, so bursts only post once
+        private final AtomicBoolean mDrainPosted = new AtomicBoolean(false);
+
+        // Apply everything received so far in main thread, with one change notification
+        private final Runnable mDrain = new Runnable() {
+            @Override
+            public void run() {
+                mDrainPosted.set(false);
+
+                // Stop after a queue's worth so a long dump can't hog the main thread
+                int count = 0;
+                ResponseMessage msg = mQueue.peek();
+                for(; msg != null && count < RESPONSE_QUEUE_SIZE; msg = mQueue.peek()) {
+                    handleResponse(msg);
+                    mQueue.remove();
+                    count++;
+                }
+
+                if(msg != null && mDrainPosted.compareAndSet(false, true)) {
+                    mHandler.post(mDrain);
+                }
+                if(count > 0) {
+                    int changes = mLedState.takeChanges();
+                    if(changes != LedState.SCOPE_NONE) onStateChanged();
+                    fireLedStateChangeEvent(changes);
+                }
+            }
+        };
+
+        CommandResponseThread(InputStream stream, FlowControl flowControl, CommandSender sender) {
+            super("CommandResponse-" + mId);
+            mReader = new ResponseReader(stream);
+            mFlowControl = flowControl;
+            mSender = sender;
+        }
+
+        @Override
+        public void run() {
+            boolean clean = false;
+            long bytesRead = 0;
+            try {
+                while(true) {
+                    ResponseMessage msg = mQueue.beginWrite();
+                    if(!mReader.read(msg)) {
+                        clean = true;
+                        break;
+                    }
+
+                    mMetrics.bytesReceived.add(mReader.getBytesRead() - bytesRead);
+                    bytesRead = mReader.getBytesRead();
+
+                    TrafficRecorder recorder = mRecorder;
+                    if(recorder != null) {
+                        recorder.record(TrafficRecorder.INBOUND, System.nanoTime(),
+                                msg.toString());
+                    }
+
+                    mFlowControl.onResponse(msg);
+                    mQueue.endWrite();
+
+                    // An ack may have freed a slot for the next command
+                    if(!mSender.isQueueEmpty()) mSender.wake();
+
+                    // Anything that arrives before the drain runs gets picked up by it too
+                    if(mDrainPosted.compareAndSet(false, true)) {
+                        mHandler.post(mDrain);
+                    }
+                }
+            } catch(IOException e) {
+                Log.w(TAG, "Error reading command: " + e.toString());
+            } catch(InterruptedException e) {
+                // Exit
+            }
+
+            // Reconnect, straight away if the board closed the link and after a backoff on error
+            final boolean closedCleanly = clean;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Ignore readers of links we closed ourselves, to reconnect or for good
+                    if(mClosed || CommandResponseThread.this != mRespThread) return;
+                    onDisconnected(closedCleanly);
+                }
+            });
+        }
+    }
+
+    private static void closeQuietly(LedTransport transport) {
+        if(transport == null) return;
+
+        try {
+            transport.close();
+        } catch(IOException e) {
+            Log.w(TAG, "Failed to close transport", e);
+        }
+    }
+
+    private void handleResponse(ResponseMessage msg) {
+        if(Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "RESPONSE from " + mId + ": " + msg);
+        }
+        mLedState.update(msg);
+
+        if(msg.getCode() == 'v') {
+            // Switch to binary frames once the board says it can take them
+            if(mSender != null) {
+                mSender.setBinaryProtocol((mLedState.firmwareFeatures &
+                        LedState.FEATURE_BINARY_PROTOCOL) != 0);
+            }
+            onFirmwareIdentified();
+        }
+    }
+
+    private class ConnectorTask extends AsyncTask<Void, Void, LedTransport> {
+        private final LedTransport.Factory mFactory = mTransportFactory;
+        private long mStartTime;
+        private long mStartUptime;
+        private String mAddress;
+        private String mMethod;
+        private String mError;
+
+        @Override
+        protected void onPreExecute() {
+            mStartTime = System.currentTimeMillis();
+            mStartUptime = SystemClock.elapsedRealtime();
+            mConnectionState = ConnectionState.CONNECTING;
+            fireConnectionStateChangeEvent();
+        }
+
+        @Override
+        protected LedTransport doInBackground(Void ...args) {
+            LedTransport transport = null;
+            try {
+                transport = mFactory.create();
+                if(transport == null) {
+                    mError = "No device";
+                    return null;
+                }
+
+                mAddress = transport.getAddress();
+                transport.connect();
+                mMethod = transport.getConnectMethod();
+                return transport;
+            } catch(IOException e) {
+                Log.w(TAG, "Failed to connect to " + mId + ": " + e.toString());
+                mError = e.toString();
+                if(transport != null) mMethod = transport.getConnectMethod();
+                closeQuietly(transport);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(LedTransport s) {
+            // Controller was removed while connecting
+            if(mClosed) {
+                closeQuietly(s);
+                return;
+            }
+
+            try {
+                if(s == null) {
+                    mConnectionState = ConnectionState.DISCONNECTED;
+                } else {
+                    // Set up connection objects
+                    InputStream in = s.getInputStream();
+                    OutputStream out = s.getOutputStream();
+                    mTransport = s;
+
+                    // Kick off communcation threads
+                    FlowControl flowControl = new FlowControl(mFlowControlWindow,
+                            FlowControl.DEFAULT_ACK_TIMEOUT_MS);
+                    mClock.reset();
+                    flowControl.setClockEstimator(mClock);
+                    mPacer.reset();
+                    flowControl.setPacer(mPacer);
+                    flowControl.setMetrics(mMetrics);
+                    mSender = new CommandSender(out, flowControl);
+                    mRespThread = new CommandResponseThread(in, flowControl, mSender);
+                    mRespThread.start();
+
+                    // Board may have been reset while we were away, don't trust what we sent it
+                    mLedState.invalidateSynced();
+
+                    // Offer binary protocol, boards that don't know it keep talking text
+                    mSender.sendCommand(WireProtocol.NEGOTIATE_COMMAND);
+
+                    // Request current state of everything from LED board. Layer options come
+                    // once we know whether the ones we have cached are still good.
+                    mSender.sendCommand("c");
+                    mHandler.postDelayed(mRequestCatalog, VERSION_TIMEOUT_MS);
+
+                    mConnectionState = ConnectionState.CONNECTED;
+                }
+            } catch(IOException e) {
+                mConnectionState = ConnectionState.DISCONNECTED;
+                Log.w(TAG, "Error getting streams for " + s.getAddress() + ": " + e.toString());
+                mError = e.toString();
+                closeQuietly(s);
+            }
+
+            long duration = SystemClock.elapsedRealtime() - mStartUptime;
+            if(mConnectionState == ConnectionState.CONNECTED) {
+                mReconnect.onSuccess(mStartTime, duration, mAddress, mMethod);
+                mMetrics.onConnect(duration);
+                mPrefs.edit()
+                        .putString(PREF_LAST_ADDRESS, mAddress)
+                        .putString(PREF_LAST_METHOD, mMethod)
+                        .apply();
+            } else {
+                // Back off before trying again, forgetting the remembered device if it keeps
+                // failing
+                mReconnect.onFailure(mStartTime, duration, mAddress, mMethod, mError);
+                mMetrics.onConnectFailure();
+                long delayMs = mReconnect.nextDelayMs();
+                Log.d(TAG, "Retrying connection to " + mId + " in " + delayMs + " ms");
+                startConnecting(delayMs);
+            }
+
+            // Let everyone know the new state if any
+            fireConnectionStateChangeEvent();
+        }
+    }
+}
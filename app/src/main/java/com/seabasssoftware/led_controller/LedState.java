@@ -1,23 +1,66 @@
 package com.seabasssoftware.led_controller;
 
-import android.text.TextUtils;
 import android.util.Log;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class LedState implements Serializable {
     private static final String TAG = "LedState";
 
+    // Marks a synced value as unknown, so it always counts as changed
+    private static final int UNSYNCED = -1;
+
+    // For arguments the pattern catalog doesn't know about yet
+    private static final ParamCurve LINEAR_ARG = ParamCurve.linear(0, 0);
+
+    // Change scopes reported to listeners, as a bit mask. Each layer gets its own bit starting at
+    // SCOPE_FIRST_LAYER; layers past the last bit all share it.
+    public static final int SCOPE_NONE = 0;
+    public static final int SCOPE_GLOBAL = 1;
+    public static final int SCOPE_SECTIONS = 1 << 1;
+    public static final int SCOPE_PATTERNS = 1 << 2;
+    public static final int SCOPE_FIRMWARE = 1 << 3;
+    private static final int SCOPE_FIRST_LAYER = 8;
+    public static final int SCOPE_ALL_LAYERS = -1 << SCOPE_FIRST_LAYER;
+    public static final int SCOPE_ALL = -1;
+
     // State data
     private ArrayList<LayerSettings> mLayers = new ArrayList<LayerSettings>();
     public ArrayList<PatternInfo> patterns = new ArrayList<PatternInfo>();
     public int globalBrightness = 0;
-    public List<Integer> sectionBrightness = Arrays.asList(0, 0, 0, 0);
+    public int[] sectionBrightness = new int[] {0, 0, 0, 0};
+
+    // How brightness positions map to values on the wire. Linear unless the board wants gamma
+    // applied on our side, e.g. ParamCurve.gamma(0, 255, ParamCurve.BRIGHTNESS_GAMMA).
+    public ParamCurve brightnessCurve = ParamCurve.linear(0, 255);
+    public ParamCurve sectionCurve = ParamCurve.linear(0, 255);
+
+    // Firmware info reported in response to version query, zero if the board doesn't answer it.
+    // The checksum identifies the pattern catalog, if the firmware reports one.
+    public static final int FEATURE_BINARY_PROTOCOL = 1;
+    public int firmwareVersion = 0;
+    public int firmwareFeatures = 0;
+    public int catalogChecksum = 0;
+
+    // Last global values sent to or reported by the board, as wire values
+    private int mSyncedBrightness = UNSYNCED;
+    private int[] mSyncedSections = new int[0];
+
+    // Scopes changed by messages from the board since last takeChanges()
+    private int mChanges = SCOPE_NONE;
+
+    // Messages from the board that weren't understood
+    private int mParseFailures = 0;
+
+    // Bumped whenever the pattern catalog changes, so snapshots only copy it when it has
+    private int mPatternsGeneration = 0;
+
+    // Last snapshot taken, which the next one shares unchanged parts with
+    private transient Snapshot mSnapshot;
 
     // Information about an argument that controls a pattern
     public class PatternArgInfo implements Serializable {
@@ -25,11 +68,16 @@ public class LedState implements Serializable {
         public int start;
         public int end;
 
-        // Initialize from command message token list
-        PatternArgInfo(List<MessageArg> tok) {
-            name = tok.remove(0).value;
-            start = tok.remove(0).intValue;
-            end = tok.remove(0).intValue;
+        // Mapping from slider position, start to end, to the value sent. Guessed from the name
+        // when the board lists its catalog, and saved with it, so one set from code lasts until
+        // the board lists the catalog again.
+        public ParamCurve curve;
+
+        PatternArgInfo(String name, int start, int end) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.curve = ParamCurve.forArg(name, start, end);
         }
     }
 
@@ -41,12 +89,12 @@ public class LedState implements Serializable {
         // Empty
         PatternInfo() {}
 
-        // Initialize from command message token list
-        PatternInfo(List<MessageArg> tok) {
-            name = tok.remove(0).value;
+        // Initialize from pattern list message, "l<index>,<name>" followed by argument triples
+        PatternInfo(ResponseMessage msg) {
+            name = msg.getString(1);
 
-            while(tok.size() >= 3) {
-                args.add(new PatternArgInfo(tok));
+            for(int i = 2; i + 3 <= msg.getArgCount(); i += 3) {
+                args.add(new PatternArgInfo(msg.getString(i), msg.getInt(i + 1), msg.getInt(i + 2)));
             }
         }
     }
@@ -55,45 +103,269 @@ public class LedState implements Serializable {
     public class LayerSettings implements Serializable {
         public int layerNum = 0;
         public int patternNum = 0;
-        public List<Integer> args = Arrays.asList(0, 0, 0);
+        public int[] args = new int[] {0, 0, 0};
         public int animSpeed = 0;
         public int animStep = 0;
 
+        // Last wire values sent to or reported by the board for each field, to tell which fields
+        // changed since
+        private int mSyncedPatternNum = UNSYNCED;
+        private int[] mSyncedArgs = new int[0];
+        private int mSyncedAnimSpeed = UNSYNCED;
+        private int mSyncedAnimStep = UNSYNCED;
+
+        public String getPatternCommand() {
+            StringBuilder sb = new StringBuilder();
+            sb.append('p').append(layerNum).append(',').append(patternNum);
+            for(int i = 0; i < args.length; i++) {
+                sb.append(',').append(getArgWire(i));
+            }
+            return sb.append('\n').toString();
+        }
+
+        public String getAnimSpeedCommand() {
+            return "a" + layerNum + "," + getRealAnimSpeed() + "\n";
+        }
+
+        public String getAnimStepCommand() {
+            return "t" + layerNum + "," + animStep + "\n";
+        }
+
         public String getConfigCommand() {
-            // Convert logarithmic slider to linear scale
-            int realAnimSpeed = (int)Math.pow(10.0, (double)(1000 - animSpeed) / 1000.0 * 3.0) - 1;
+            return getPatternCommand() + getAnimSpeedCommand() + getAnimStepCommand();
+        }
 
-            return "p" + layerNum + "," + patternNum + "," + TextUtils.join(",", args) + "\n" +
-                    "a" + layerNum + "," + realAnimSpeed + "\n" +
-                    "t" + layerNum + "," + animStep + "\n";
+        // Return commands for only the fields that changed since they were last synced with the
+        // board, and consider them synced
+        public String getChangedConfigCommand() {
+            StringBuilder sb = new StringBuilder();
+
+            if(patternNum != mSyncedPatternNum || !isArgsSynced()) {
+                sb.append(getPatternCommand());
+                syncPattern();
+            }
+
+            if(getRealAnimSpeed() != mSyncedAnimSpeed) {
+                sb.append(getAnimSpeedCommand());
+                mSyncedAnimSpeed = getRealAnimSpeed();
+            }
+
+            if(animStep != mSyncedAnimStep) {
+                sb.append(getAnimStepCommand());
+                mSyncedAnimStep = animStep;
+            }
+
+            return sb.toString();
         }
 
         public void setPattern(int n) {
             // Reset args if changing pattern -- don't want to give bad data
             if(n != patternNum) {
-                for (int i = 0; i < args.size(); i++) {
-                    args.set(i, 0);
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = 0;
                 }
                 animSpeed = 500;
                 animStep = 1;
             }
             patternNum = n;
         }
+
+        // Convert logarithmic slider to linear scale
+        int getRealAnimSpeed() {
+            return ParamCurve.ANIM_SPEED.toWire(animSpeed);
+        }
+
+        // Curve for an argument of the current pattern, or null if the catalog doesn't have it
+        ParamCurve getArgCurve(int index) {
+            if(patternNum < 0 || patternNum >= patterns.size()) return null;
+
+            ArrayList<PatternArgInfo> info = patterns.get(patternNum).args;
+            return index < info.size() ? info.get(index).curve : null;
+        }
+
+        int getArgWire(int index) {
+            ParamCurve curve = getArgCurve(index);
+            return curve != null ? curve.toWire(args[index]) : args[index];
+        }
+
+        private boolean isArgsSynced() {
+            if(mSyncedArgs.length != args.length) return false;
+            for(int i = 0; i < args.length; i++) {
+                if(getArgWire(i) != mSyncedArgs[i]) return false;
+            }
+            return true;
+        }
+
+        private void syncPattern() {
+            mSyncedPatternNum = patternNum;
+            if(mSyncedArgs.length != args.length) {
+                mSyncedArgs = new int[args.length];
+            }
+            for(int i = 0; i < args.length; i++) {
+                mSyncedArgs[i] = getArgWire(i);
+            }
+        }
+
+        private void invalidateSynced() {
+            mSyncedPatternNum = UNSYNCED;
+            mSyncedAnimSpeed = UNSYNCED;
+            mSyncedAnimStep = UNSYNCED;
+        }
     }
 
-    // Store arguments from message
-    public class MessageArg {
-        String value;
-        int intValue;
+    // Immutable copy of the state at one point, safe to hand to other threads. Parts that didn't
+    // change since the previous snapshot are shared with it rather than copied.
+    public static final class Snapshot {
+        // Goes up by one with every snapshot that differs from the one before
+        public final long version;
+        public final int globalBrightness;
+        public final int firmwareVersion;
+        public final int firmwareFeatures;
+        public final int catalogChecksum;
+
+        // Catalog entries are never changed once received, only replaced
+        public final List<PatternInfo> patterns;
+
+        private final int[] mSections;
+        private final Layer[] mLayers;
+        private final ArrayList<PatternInfo> mPatternsSource;
+        private final int mPatternsGeneration;
+
+        private Snapshot(LedState state, Snapshot prev) {
+            version = prev != null ? prev.version + 1 : 1;
+            globalBrightness = state.globalBrightness;
+            firmwareVersion = state.firmwareVersion;
+            firmwareFeatures = state.firmwareFeatures;
+            catalogChecksum = state.catalogChecksum;
+
+            mSections = prev != null && Arrays.equals(prev.mSections, state.sectionBrightness) ?
+                    prev.mSections : state.sectionBrightness.clone();
 
-        MessageArg(String s) {
-            value = s;
-            try {
-                intValue = Integer.parseInt(value);
-            } catch(NumberFormatException e) {
-                intValue = 0;
+            mLayers = new Layer[state.getLayerCount()];
+            for(int i = 0; i < mLayers.length; i++) {
+                LayerSettings layer = state.mLayers.get(i);
+                boolean same = prev != null && i < prev.mLayers.length &&
+                        prev.mLayers[i].matches(layer);
+                mLayers[i] = same ? prev.mLayers[i] : new Layer(layer);
             }
+
+            mPatternsSource = state.patterns;
+            mPatternsGeneration = state.mPatternsGeneration;
+            patterns = prev != null && prev.hasPatternsOf(state) ? prev.patterns :
+                    Collections.unmodifiableList(new ArrayList<PatternInfo>(state.patterns));
+        }
+
+        public int getSectionCount() {
+            return mSections.length;
+        }
+
+        public int getSection(int index) {
+            return mSections[index];
+        }
+
+        public int getLayerCount() {
+            return mLayers.length;
         }
+
+        public Layer getLayer(int index) {
+            return mLayers[index];
+        }
+
+        private boolean hasPatternsOf(LedState state) {
+            return mPatternsSource == state.patterns &&
+                    mPatternsGeneration == state.mPatternsGeneration &&
+                    patterns.size() == state.patterns.size();
+        }
+
+        private boolean matches(LedState state) {
+            if(globalBrightness != state.globalBrightness ||
+                    firmwareVersion != state.firmwareVersion ||
+                    firmwareFeatures != state.firmwareFeatures ||
+                    catalogChecksum != state.catalogChecksum ||
+                    !Arrays.equals(mSections, state.sectionBrightness) ||
+                    mLayers.length != state.getLayerCount() ||
+                    !hasPatternsOf(state)) {
+                return false;
+            }
+
+            for(int i = 0; i < mLayers.length; i++) {
+                if(!mLayers[i].matches(state.mLayers.get(i))) return false;
+            }
+            return true;
+        }
+    }
+
+    // Immutable copy of one layer's settings
+    public static final class Layer {
+        public final int patternNum;
+        public final int animSpeed;
+        public final int animStep;
+        private final int[] mArgs;
+
+        private Layer(LayerSettings layer) {
+            patternNum = layer.patternNum;
+            animSpeed = layer.animSpeed;
+            animStep = layer.animStep;
+            mArgs = layer.args.clone();
+        }
+
+        public int getArgCount() {
+            return mArgs.length;
+        }
+
+        public int getArg(int index) {
+            return mArgs[index];
+        }
+
+        private boolean matches(LayerSettings layer) {
+            return patternNum == layer.patternNum && animSpeed == layer.animSpeed &&
+                    animStep == layer.animStep && Arrays.equals(mArgs, layer.args);
+        }
+    }
+
+    // Take an immutable snapshot of the current state. Returns the previous snapshot again if
+    // nothing changed since it was taken. Must be called on the thread that changes this state.
+    public Snapshot snapshot() {
+        if(mSnapshot == null || !mSnapshot.matches(this)) {
+            mSnapshot = new Snapshot(this, mSnapshot);
+        }
+        return mSnapshot;
+    }
+
+    public static int layerScope(int layerNum) {
+        return 1 << Math.min(SCOPE_FIRST_LAYER + layerNum, 31);
+    }
+
+    // Return scopes changed by board messages since the last call, and reset them
+    public int takeChanges() {
+        int changes = mChanges;
+        mChanges = SCOPE_NONE;
+        return changes;
+    }
+
+    public int getParseFailureCount() {
+        return mParseFailures;
+    }
+
+    // Empty state with the same curves and pattern catalog, so commands built from it map values
+    // for this board the same way. Can be used on another thread.
+    public LedState copyMapping() {
+        LedState state = new LedState();
+        state.brightnessCurve = brightnessCurve;
+        state.sectionCurve = sectionCurve;
+        state.patterns = new ArrayList<PatternInfo>(patterns);
+        return state;
+    }
+
+    // Replace the pattern catalog, e.g. from a cached copy
+    public void setPatterns(ArrayList<PatternInfo> newPatterns) {
+        patterns = newPatterns;
+        mPatternsGeneration++;
+        mChanges |= SCOPE_PATTERNS;
+    }
+
+    public int getLayerCount() {
+        return mLayers.size();
     }
 
     // Get layer from list, adding it if it doesn't already exist
@@ -108,65 +380,177 @@ public class LedState implements Serializable {
 
     // Return global settings as command string
     public String getGlobalConfigCommand() {
-        return "b" + globalBrightness + "\n" +
-               "s" + TextUtils.join(",", sectionBrightness) + "\n";
+        return getBrightnessCommand() + getSectionCommand();
     }
 
-    private static final Pattern mResponsePattern = Pattern.compile("^(\\p{Alpha})(.*?)");
-    public void updateFromString(String line) {
-        Matcher respMatcher = mResponsePattern.matcher(line);
+    public String getBrightnessCommand() {
+        return "b" + brightnessCurve.toWire(globalBrightness) + "\n";
+    }
 
-        // Nothing to do if command doesn't match
-        if(!respMatcher.matches()) {
-            Log.w(TAG, "Invalid config line: " + line);
-            return;
+    public String getSectionCommand() {
+        StringBuilder sb = new StringBuilder("s");
+        for(int i = 0; i < sectionBrightness.length; i++) {
+            if(i > 0) sb.append(',');
+            sb.append(sectionCurve.toWire(sectionBrightness[i]));
         }
+        return sb.append('\n').toString();
+    }
 
-        String code = respMatcher.group(1);
-        Log.d(TAG, "Got code: " + code);
+    // Return global settings that changed since they were last synced with the board, and
+    // consider them synced
+    public String getChangedGlobalConfigCommand() {
+        StringBuilder sb = new StringBuilder();
 
-        ArrayList<MessageArg> args = new ArrayList<MessageArg>();
-        for(String s : respMatcher.group(2).split(",")) {
-            Log.d(TAG, "Got arg: " + s);
-            args.add(new MessageArg(s));
+        int brightness = brightnessCurve.toWire(globalBrightness);
+        if(brightness != mSyncedBrightness) {
+            sb.append(getBrightnessCommand());
+            mSyncedBrightness = brightness;
         }
 
-        if(code.equals("l")) {
-            int idx = args.remove(0).intValue;
+        if(!isSectionsSynced()) {
+            sb.append(getSectionCommand());
+            syncSections();
+        }
 
-            // Add blanks as necessary
-            while(patterns.size() <= idx) {
-                patterns.add(new PatternInfo());
+        return sb.toString();
+    }
+
+    // Return commands for every global and layer setting that changed since last synced with the
+    // board, and consider them synced
+    public String getChangedCommand() {
+        StringBuilder sb = new StringBuilder(getChangedGlobalConfigCommand());
+        for(LayerSettings layer : mLayers) {
+            sb.append(layer.getChangedConfigCommand());
+        }
+        return sb.toString();
+    }
+
+    // Forget what the board has, so the next changed command includes every field
+    public void invalidateSynced() {
+        mSyncedBrightness = UNSYNCED;
+        mSyncedSections = new int[0];
+        for(LayerSettings layer : mLayers) {
+            layer.invalidateSynced();
+        }
+    }
+
+    private boolean isSectionsSynced() {
+        if(mSyncedSections.length != sectionBrightness.length) return false;
+        for(int i = 0; i < sectionBrightness.length; i++) {
+            if(sectionCurve.toWire(sectionBrightness[i]) != mSyncedSections[i]) return false;
+        }
+        return true;
+    }
+
+    private void syncSections() {
+        if(mSyncedSections.length != sectionBrightness.length) {
+            mSyncedSections = new int[sectionBrightness.length];
+        }
+        for(int i = 0; i < sectionBrightness.length; i++) {
+            mSyncedSections[i] = sectionCurve.toWire(sectionBrightness[i]);
+        }
+    }
+
+    public void updateFromString(String line) {
+        update(ResponseMessage.fromString(line));
+    }
+
+    // Apply a response message from the board. Only pattern list messages allocate, everything else
+    // is updated in place.
+    public void update(ResponseMessage msg) {
+        switch(msg.getCode()) {
+            case 'l': {
+                int idx = msg.getInt(0);
+
+                // Add blanks as necessary
+                while(patterns.size() <= idx) {
+                    patterns.add(new PatternInfo());
+                }
+                patterns.set(idx, new PatternInfo(msg));
+                mPatternsGeneration++;
+                mChanges |= SCOPE_PATTERNS;
+                break;
             }
-            patterns.set(idx, new PatternInfo(args));
 
-        } else if(code.equals("b")) {
-            globalBrightness = args.get(0).intValue;
+            case 'v':
+                firmwareVersion = msg.getInt(0);
+                firmwareFeatures = msg.getInt(1);
+                catalogChecksum = msg.getInt(2);
+                mChanges |= SCOPE_FIRMWARE;
+                break;
 
-        } else if(code.equals("s")) {
-            sectionBrightness = new ArrayList<Integer>();
-            for(MessageArg a : args) {
-                sectionBrightness.add(a.intValue);
+            case 'b':
+                // Positions that already give the reported value stay put
+                if(!brightnessCurve.isPositionFor(globalBrightness, msg.getInt(0))) {
+                    globalBrightness = brightnessCurve.toPosition(msg.getInt(0));
+                    mChanges |= SCOPE_GLOBAL;
+                }
+                mSyncedBrightness = msg.getInt(0);
+                break;
+
+            case 's':
+                if(sectionBrightness.length != msg.getArgCount()) {
+                    sectionBrightness = new int[msg.getArgCount()];
+                    mChanges |= SCOPE_SECTIONS;
+                }
+                for(int i = 0; i < sectionBrightness.length; i++) {
+                    if(!sectionCurve.isPositionFor(sectionBrightness[i], msg.getInt(i))) {
+                        sectionBrightness[i] = sectionCurve.toPosition(msg.getInt(i));
+                        mChanges |= SCOPE_SECTIONS;
+                    }
+                }
+                syncSections();
+                break;
+
+            case 'p': {
+                LayerSettings layer = getLayer(msg.getInt(0));
+                int changes = layer.patternNum != msg.getInt(1) ? layerScope(layer.layerNum) : 0;
+                layer.patternNum = msg.getInt(1);
+
+                int count = Math.max(0, msg.getArgCount() - 2);
+                if(layer.args.length != count) {
+                    layer.args = new int[count];
+                    changes = layerScope(layer.layerNum);
+                }
+                for(int i = 0; i < count; i++) {
+                    ParamCurve curve = layer.getArgCurve(i);
+                    if(curve == null) curve = LINEAR_ARG;
+                    if(!curve.isPositionFor(layer.args[i], msg.getInt(i + 2))) {
+                        layer.args[i] = curve.toPosition(msg.getInt(i + 2));
+                        changes = layerScope(layer.layerNum);
+                    }
+                }
+                layer.syncPattern();
+                mChanges |= changes;
+                break;
             }
 
-        } else {
-            LayerSettings layer = getLayer(args.remove(0).intValue);
+            case 'a': {
+                // Convert to logarithmic slider scale
+                LayerSettings layer = getLayer(msg.getInt(0));
+                if(!ParamCurve.ANIM_SPEED.isPositionFor(layer.animSpeed, msg.getInt(1))) {
+                    layer.animSpeed = ParamCurve.ANIM_SPEED.toPosition(msg.getInt(1));
+                    mChanges |= layerScope(layer.layerNum);
+                }
+                layer.mSyncedAnimSpeed = layer.getRealAnimSpeed();
+                break;
+            }
 
-            if(code.equals("p")) {
-                layer.patternNum = args.remove(0).intValue;
-                layer.args = new ArrayList<Integer>();
-                for(MessageArg a : args) {
-                    layer.args.add(a.intValue);
+            case 't': {
+                LayerSettings layer = getLayer(msg.getInt(0));
+                if(layer.animStep != msg.getInt(1)) {
+                    layer.animStep = msg.getInt(1);
+                    mChanges |= layerScope(layer.layerNum);
                 }
-            } else if(code.equals("a")) {
-                // Convert slider to logarithmic scale
-                layer.animSpeed = 1000 - (int)(Math.log10(args.get(0).intValue + 1) / 3.0 * 1000.0);
-            } else if(code.equals("t")) {
-                layer.animStep = args.get(0).intValue;
-            } else {
-                // Nothing to do if not valid layer config
-                Log.w(TAG, "Invalid layer config: " + line);
+                layer.mSyncedAnimStep = layer.animStep;
+                break;
             }
+
+            default:
+                // Nothing to do if not valid config
+                Log.w(TAG, "Invalid config line: " + msg);
+                mParseFailures++;
+                break;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package com.seabasssoftware.led_controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Byte stream connection to an LED controller board. The service only talks to boards through
+// this, so the link can be Bluetooth RFCOMM, TCP (e.g. a serial-to-TCP bridge) or an in-memory pipe.
+public interface LedTransport extends Closeable {
+    // Open the connection, blocking until it is up
+    void connect() throws IOException;
+
+    InputStream getInputStream() throws IOException;
+    OutputStream getOutputStream() throws IOException;
+
+    // Identifies the board at the other end, stable across reconnects
+    String getAddress();
+
+    // How the connection was made, so the same way can be tried first next time
+    String getConnectMethod();
+
+    // Picks the board to connect to and creates an unconnected transport for it. Called off the
+    // main thread, returns null if no board is available.
+    interface Factory {
+        LedTransport create() throws IOException;
+    }
+}
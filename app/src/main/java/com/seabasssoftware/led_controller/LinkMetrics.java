@@ -0,0 +1,162 @@
+package com.seabasssoftware.led_controller;
+
+import java.util.Locale;
+
+// Counters and histograms for one board's link and command pipeline, for tuning installations.
+// Updated from the send, response and main threads, so everything here is thread safe.
+public class LinkMetrics {
+    // Commands waiting in the send queue when one is picked
+    public final Histogram queueDepth = new Histogram();
+
+    // Time from a command being queued until it is written, in microseconds
+    public final Histogram enqueueToWriteUs = new Histogram();
+
+    // Time from a command being written until the board echoes it, in microseconds
+    public final Histogram writeToEchoUs = new Histogram();
+
+    // Time from a tracked command being queued until the board has confirmed all of it, in
+    // microseconds
+    public final Histogram editToConfirmUs = new Histogram();
+
+    // Time taken by successful connection attempts, in milliseconds
+    public final Histogram connectMs = new Histogram();
+
+    public final RateCounter bytesSent = new RateCounter();
+    public final RateCounter bytesReceived = new RateCounter();
+
+    private long mCommandsSent = 0;
+    private long mCommandsDropped = 0;
+    private long mConnects = 0;
+    private long mConnectFailures = 0;
+
+    // Values bucketed by powers of two, cheap enough to update on every command
+    public static class Histogram {
+        private static final int NUM_BUCKETS = 40;
+
+        private final long[] mBuckets = new long[NUM_BUCKETS];
+        private long mCount = 0;
+        private long mSum = 0;
+        private long mMax = 0;
+
+        public synchronized void add(long value) {
+            if(value < 0) value = 0;
+            int bucket = Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            mBuckets[bucket]++;
+            mCount++;
+            mSum += value;
+            mMax = Math.max(mMax, value);
+        }
+
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        public synchronized long getMean() {
+            return mCount > 0 ? mSum / mCount : 0;
+        }
+
+        public synchronized long getMax() {
+            return mMax;
+        }
+
+        // Upper bound of the bucket holding the given fraction of values, capped at the maximum
+        public synchronized long getPercentile(double fraction) {
+            if(mCount == 0) return 0;
+
+            long target = (long)Math.ceil(fraction * mCount);
+            long seen = 0;
+            for(int i = 0; i < NUM_BUCKETS; i++) {
+                seen += mBuckets[i];
+                if(seen >= target) return Math.min(mMax, (1L << i) - 1);
+            }
+            return mMax;
+        }
+
+        public synchronized void reset() {
+            for(int i = 0; i < NUM_BUCKETS; i++) mBuckets[i] = 0;
+            mCount = 0;
+            mSum = 0;
+            mMax = 0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.US, "n=%d mean=%d p50=%d p99=%d max=%d", mCount,
+                    getMean(), getPercentile(0.5), getPercentile(0.99), mMax);
+        }
+    }
+
+    // Running total with a rate per second over the last full second
+    public static class RateCounter {
+        private static final long WINDOW_NS = 1000000000L;
+
+        private long mTotal = 0;
+        private long mWindowStartNs = System.nanoTime();
+        private long mWindowCount = 0;
+        private double mRate = 0;
+
+        public synchronized void add(long n) {
+            roll(System.nanoTime());
+            mTotal += n;
+            mWindowCount += n;
+        }
+
+        public synchronized long getTotal() {
+            return mTotal;
+        }
+
+        public synchronized double getRate() {
+            roll(System.nanoTime());
+            return mRate;
+        }
+
+        private void roll(long now) {
+            long elapsed = now - mWindowStartNs;
+            if(elapsed < WINDOW_NS) return;
+
+            // Nothing at all in the last window means the rate is zero, not the old one
+            mRate = elapsed < 2 * WINDOW_NS ? mWindowCount * 1e9 / elapsed : 0;
+            mWindowStartNs = now;
+            mWindowCount = 0;
+        }
+    }
+
+    public synchronized void onCommandSent() {
+        mCommandsSent++;
+    }
+
+    // Command that never made it to the board, e.g. no link or never acknowledged
+    public synchronized void onCommandDropped() {
+        mCommandsDropped++;
+    }
+
+    public synchronized void onConnect(long durationMs) {
+        mConnects++;
+        connectMs.add(durationMs);
+    }
+
+    public synchronized void onConnectFailure() {
+        mConnectFailures++;
+    }
+
+    public synchronized long getCommandsSent() {
+        return mCommandsSent;
+    }
+
+    public synchronized long getCommandsDropped() {
+        return mCommandsDropped;
+    }
+
+    public synchronized long getConnects() {
+        return mConnects;
+    }
+
+    // Connections after the first one
+    public synchronized long getReconnects() {
+        return Math.max(0, mConnects - 1);
+    }
+
+    public synchronized long getConnectFailures() {
+        return mConnectFailures;
+    }
+}
@@ -0,0 +1,118 @@
+package com.seabasssoftware.led_controller;
+
+// Token bucket that limits how fast bytes are written to the board, with a rate that follows what
+// the link and board actually sustain. Tokens are bytes, refilled at the current rate up to a small
+// burst.
+//
+// The rate is adjusted once per interval from acknowledgements. While round trips stay close to
+// the fastest seen, nothing is queueing up and a busy link's rate creeps up to probe for more.
+// Once round trips stretch out, commands are piling up somewhere on the way, so the rate drops
+// back to the throughput that was actually delivered. A command that is never acked halves the
+// rate. Without acks there is nothing to go on, so links that don't echo run at the default rate.
+public class LinkRatePacer {
+    public static final double DEFAULT_RATE = 960; // 9600 baud
+    public static final double MIN_RATE = 50;
+    public static final double MAX_RATE = 100000;
+    private static final double BURST_BYTES = 64;
+    private static final long MIN_INTERVAL_NS = 100000000;
+    private static final double PROBE_GAIN = 1.25;
+    private static final double DRAIN_GAIN = 0.9;
+
+    private double mRate = DEFAULT_RATE;
+    private double mTokens = BURST_BYTES;
+    private long mLastRefillNs = System.nanoTime();
+
+    // Measurements for the current interval
+    private long mMinRttNs = Long.MAX_VALUE;
+    private long mIntervalStartNs = System.nanoTime();
+    private long mIntervalBytes = 0;
+    private long mIntervalRttSumNs = 0;
+    private int mIntervalAcks = 0;
+    private double mDeliveredRate = 0;
+
+    // Zero if there are tokens left now, otherwise the time until there will be. Waiting before
+    // picking the next command rather than after lets pending updates keep coalescing meanwhile.
+    public synchronized long getTokenDelayNs() {
+        refill();
+        if(mTokens > 0) return 0;
+        return Math.max(1, (long)Math.ceil(-mTokens / mRate * 1e9));
+    }
+
+    // Take bytes for a write. The bucket may go into debt, which later writes wait to pay off.
+    public synchronized void consume(int bytes) {
+        refill();
+        mTokens -= bytes;
+    }
+
+    // Command of the given size was acknowledged with this round trip
+    public synchronized void onAck(int bytes, long rttNs) {
+        long now = System.nanoTime();
+        mMinRttNs = Math.min(mMinRttNs, rttNs);
+        mIntervalBytes += bytes;
+        mIntervalRttSumNs += rttNs;
+        mIntervalAcks++;
+
+        long interval = now - mIntervalStartNs;
+        if(interval < Math.max(MIN_INTERVAL_NS, mMinRttNs)) return;
+
+        mDeliveredRate = mIntervalBytes * 1e9 / interval;
+        long avgRtt = mIntervalRttSumNs / mIntervalAcks;
+        if(avgRtt <= mMinRttNs + mMinRttNs / 4 + 2000000) {
+            // Only probe when the rate is what held us back, not while the link is mostly idle
+            if(mDeliveredRate >= mRate / 2) setRate(mRate * PROBE_GAIN);
+        } else if(avgRtt > mMinRttNs * 2) {
+            setRate(Math.min(mRate, mDeliveredRate) * DRAIN_GAIN);
+        }
+
+        mIntervalStartNs = now;
+        mIntervalBytes = 0;
+        mIntervalRttSumNs = 0;
+        mIntervalAcks = 0;
+    }
+
+    // Command was never acknowledged
+    public synchronized void onLoss() {
+        setRate(mRate / 2);
+    }
+
+    // Current allowed rate in bytes per second
+    public synchronized double getRate() {
+        return mRate;
+    }
+
+    // Throughput acknowledged by the board over the last full interval, in bytes per second
+    public synchronized double getDeliveredRate() {
+        return mDeliveredRate;
+    }
+
+    // Fastest round trip seen, or zero if none yet
+    public synchronized long getMinRttNs() {
+        return mMinRttNs == Long.MAX_VALUE ? 0 : mMinRttNs;
+    }
+
+    // Go back to the default rate, e.g. once acks stop coming and the rate can't probe back up
+    public synchronized void resetRate() {
+        setRate(DEFAULT_RATE);
+    }
+
+    // Start over on a new link, keeping the rate learned so far as a starting point
+    public synchronized void reset() {
+        mTokens = BURST_BYTES;
+        mLastRefillNs = System.nanoTime();
+        mMinRttNs = Long.MAX_VALUE;
+        mIntervalStartNs = mLastRefillNs;
+        mIntervalBytes = 0;
+        mIntervalRttSumNs = 0;
+        mIntervalAcks = 0;
+    }
+
+    private void setRate(double rate) {
+        mRate = Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        mTokens = Math.min(BURST_BYTES, mTokens + (now - mLastRefillNs) * mRate / 1e9);
+        mLastRefillNs = now;
+    }
+}
@@ -2,6 +2,7 @@ package com.seabasssoftware.led_controller;
 
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
@@ -12,10 +13,12 @@ import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentPagerAdapter;
 import android.support.v4.view.ViewPager;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.EditText;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -66,7 +69,7 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     public void onServiceConnected(ComponentName name, IBinder service) {
         mService = ((LedControlService.LocalBinder)service).getService();
-        mService.addLedControllerListener(this);
+        mService.addLedControllerListener(this, LedState.SCOPE_NONE);
     }
 
     @Override
@@ -80,7 +83,7 @@ public class MainActivity extends AppCompatActivity implements
     }
 
     @Override
-    public void onLedStateChange(LedState state) {
+    public void onLedStateChange(LedState state, int changes) {
         // Handled by fragments
     }
 
@@ -128,6 +131,13 @@ public class MainActivity extends AppCompatActivity implements
         int id = item.getItemId();
 
         if (id == R.id.action_settings) {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
+        } else if(id == R.id.action_recall_scene) {
+            showRecallSceneDialog();
+            return true;
+        } else if(id == R.id.action_save_scene) {
+            showSaveSceneDialog();
             return true;
         } else if(id == R.id.action_connect) {
             /*
@@ -140,6 +150,50 @@ public class MainActivity extends AppCompatActivity implements
         return super.onOptionsItemSelected(item);
     }
 
+    private void showRecallSceneDialog() {
+        if(mService == null) return;
+
+        final List<Scene> scenes = mService.getScenes();
+        if(scenes.isEmpty()) {
+            Snackbar.make(mTabLayout, R.string.no_scenes, Snackbar.LENGTH_SHORT).show();
+            return;
+        }
+
+        String[] names = new String[scenes.size()];
+        for(int i = 0; i < names.length; i++) names[i] = scenes.get(i).name;
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_recall_scene)
+                .setItems(names, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if(mService != null) mService.recallScene(scenes.get(which).name);
+                    }
+                })
+                .show();
+    }
+
+    private void showSaveSceneDialog() {
+        if(mService == null) return;
+
+        final EditText nameView = new EditText(this);
+        nameView.setHint(R.string.scene_name_hint);
+        nameView.setSingleLine();
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_save_scene)
+                .setView(nameView)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String name = nameView.getText().toString().trim();
+                        if(mService != null && !name.isEmpty()) mService.saveScene(name);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
     @Override
     public void onStart() {
         super.onStart();
@@ -0,0 +1,71 @@
+package com.seabasssoftware.led_controller;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.support.v7.app.AppCompatActivity;
+import android.widget.TextView;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+
+// Debug screen showing link and pipeline metrics for every board, refreshed once a second
+public class MetricsActivity extends AppCompatActivity implements ServiceConnection {
+    private static final long REFRESH_MS = 1000;
+
+    private LedControlService mService;
+    private final Handler mHandler = new Handler();
+
+    @BindView(R.id.metrics_text) TextView mMetricsText;
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            if(mService != null) mMetricsText.setText(mService.getMetricsReport());
+            mHandler.postDelayed(this, REFRESH_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+        ButterKnife.bind(this);
+
+        Intent intent = new Intent(this, LedControlService.class);
+        bindService(intent, this, Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unbindService(this);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mHandler.post(mRefresh);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mHandler.removeCallbacks(mRefresh);
+    }
+
+    @Override
+    public void onServiceConnected(ComponentName name, IBinder service) {
+        mService = ((LedControlService.LocalBinder)service).getService();
+        mMetricsText.setText(mService.getMetricsReport());
+    }
+
+    @Override
+    public void onServiceDisconnected(ComponentName name) {
+        mService = null;
+    }
+}
@@ -0,0 +1,166 @@
+package com.seabasssoftware.led_controller;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+// Mapping between a control's position, as kept in LedState and shown on a slider, and the value
+// sent to the board. Curves are worked out once into lookup tables in both directions, so turning
+// a value into a command or a board response back into a position is just an array lookup.
+//
+// Several positions can map to the same board value, e.g. at the dark end of a gamma curve. The
+// reverse table gives one position for each board value; see isPositionFor() for keeping the
+// position the user picked when the board reports its value back.
+public class ParamCurve implements Serializable {
+    public static final int LINEAR = 0;
+    public static final int GAMMA = 1;
+    public static final int LOG = 2;
+
+    // Animation speed slider, 0 to 1000, to delay between steps, 999 down to 0, on a log scale
+    public static final ParamCurve ANIM_SPEED = animSpeed();
+
+    // Perceptually even brightness for boards that send brightness to the LEDs as is
+    public static final double BRIGHTNESS_GAMMA = 2.2;
+
+    // Decades covered by pattern arguments that look like rates
+    public static final double RATE_DECADES = 2;
+
+    private final int mType;
+    private final int mMin;
+    private final int mMax;
+    private final int mWireMin;
+
+    // Gamma or decades the curve was made with, zero for linear
+    private final double mShape;
+
+    // Null for linear curves, which need no table
+    private final int[] mToWire;
+    private final int[] mToPosition;
+
+    private ParamCurve(int type, int min, int max, int wireMin, double shape, int[] toWire,
+                       int[] toPosition) {
+        mType = type;
+        mMin = min;
+        mMax = max;
+        mWireMin = wireMin;
+        mShape = shape;
+        mToWire = toWire;
+        mToPosition = toPosition;
+    }
+
+    // Same value on both sides, passed through as is even outside the range
+    public static ParamCurve linear(int min, int max) {
+        return new ParamCurve(LINEAR, min, Math.max(min, max), min, 0, null, null);
+    }
+
+    // Curve of the given type and shape, e.g. as saved from getType() and getShape()
+    public static ParamCurve of(int type, int min, int max, double shape) {
+        switch(type) {
+            case GAMMA:
+                return gamma(min, max, shape);
+            case LOG:
+                return log(min, max, shape);
+            default:
+                return linear(min, max);
+        }
+    }
+
+    // Best guess for a pattern argument from the name the board's catalog gives it. Brightness
+    // levels get gamma and rates a log scale, anything else stays linear.
+    public static ParamCurve forArg(String name, int min, int max) {
+        String n = name.toLowerCase(Locale.US);
+        if(n.contains("bright") || n.contains("level")) {
+            return gamma(min, max, BRIGHTNESS_GAMMA);
+        } else if(n.contains("speed") || n.contains("rate")) {
+            return log(min, max, RATE_DECADES);
+        }
+        return linear(min, max);
+    }
+
+    // Board value rises with position to the power of gamma, over the same range
+    public static ParamCurve gamma(int min, int max, double gamma) {
+        max = Math.max(min, max);
+        int[] toWire = new int[max - min + 1];
+        for(int i = 0; i < toWire.length; i++) {
+            double t = toWire.length > 1 ? (double)i / (toWire.length - 1) : 0;
+            toWire[i] = min + (int)Math.round(Math.pow(t, gamma) * (max - min));
+        }
+        return new ParamCurve(GAMMA, min, max, min, gamma, toWire, invert(toWire, min, max));
+    }
+
+    // Board value rises exponentially with position across the given number of decades, over the
+    // same range, for settings like rates where each step should feel like the same change
+    public static ParamCurve log(int min, int max, double decades) {
+        max = Math.max(min, max);
+        double scale = Math.pow(10, decades) - 1;
+        int[] toWire = new int[max - min + 1];
+        for(int i = 0; i < toWire.length; i++) {
+            double t = toWire.length > 1 ? (double)i / (toWire.length - 1) : 0;
+            double v = (Math.pow(10, t * decades) - 1) / scale;
+            toWire[i] = min + (int)Math.round(v * (max - min));
+        }
+        return new ParamCurve(LOG, min, max, min, decades, toWire, invert(toWire, min, max));
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public double getShape() {
+        return mShape;
+    }
+
+    public int getMin() {
+        return mMin;
+    }
+
+    public int getMax() {
+        return mMax;
+    }
+
+    // Value to send the board for a position, clamped to the curve's range
+    public int toWire(int position) {
+        if(mToWire == null) return position;
+        return mToWire[clamp(position, mMin, mMax) - mMin];
+    }
+
+    // Position for a value reported by the board
+    public int toPosition(int wire) {
+        if(mToPosition == null) return wire;
+        return mToPosition[clamp(wire - mWireMin, 0, mToPosition.length - 1)];
+    }
+
+    // Whether a position already sends the given board value, so it can stay where it is
+    public boolean isPositionFor(int position, int wire) {
+        return toWire(position) == wire;
+    }
+
+    // Nearest position for every board value in range, given increasing board values by position
+    private static int[] invert(int[] toWire, int min, int max) {
+        int[] toPosition = new int[max - min + 1];
+        int p = 0;
+        for(int w = 0; w < toPosition.length; w++) {
+            while(p + 1 < toWire.length && toWire[p + 1] - min <= w) p++;
+            boolean nextCloser = p + 1 < toWire.length &&
+                    toWire[p + 1] - min - w < w - (toWire[p] - min);
+            toPosition[w] = min + (nextCloser ? p + 1 : p);
+        }
+        return toPosition;
+    }
+
+    // Same conversions the firmware protocol has always used for animation speed, now tabulated
+    private static ParamCurve animSpeed() {
+        int[] toWire = new int[1001];
+        for(int i = 0; i < toWire.length; i++) {
+            toWire[i] = (int)Math.pow(10.0, (double)(1000 - i) / 1000.0 * 3.0) - 1;
+        }
+        int[] toPosition = new int[1000];
+        for(int w = 0; w < toPosition.length; w++) {
+            toPosition[w] = 1000 - (int)(Math.log10(w + 1) / 3.0 * 1000.0);
+        }
+        return new ParamCurve(LOG, 0, 1000, 0, 3, toWire, toPosition);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,162 @@
+package com.seabasssoftware.led_controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+// In-memory link for driving the service without any hardware. Whatever is written to this end
+// shows up on getRemoteInputStream(), and whatever is written to getRemoteOutputStream() shows up
+// here, so a simulated board or a test can sit on the far side.
+public class PipeTransport implements LedTransport {
+    private static final int BUFFER_SIZE = 4096;
+
+    private final Pipe mToRemote = new Pipe(BUFFER_SIZE);
+    private final Pipe mFromRemote = new Pipe(BUFFER_SIZE);
+    private final String mAddress;
+
+    public PipeTransport(String address) {
+        mAddress = address;
+    }
+
+    @Override
+    public void connect() {
+        // Always connected
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return mFromRemote.in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return mToRemote.out;
+    }
+
+    // Board side of the link
+    public InputStream getRemoteInputStream() {
+        return mToRemote.in;
+    }
+
+    public OutputStream getRemoteOutputStream() {
+        return mFromRemote.out;
+    }
+
+    @Override
+    public String getConnectMethod() {
+        return "pipe";
+    }
+
+    @Override
+    public String getAddress() {
+        return mAddress;
+    }
+
+    // Closing either end ends both directions, like a dropped link
+    @Override
+    public void close() {
+        mToRemote.close();
+        mFromRemote.close();
+    }
+
+    // Bounded single direction byte pipe. Unlike PipedInputStream it doesn't care which threads
+    // read and write.
+    private static class Pipe {
+        private final byte[] mBuf;
+        private int mHead = 0;
+        private int mCount = 0;
+        private boolean mClosed = false;
+
+        final InputStream in = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Pipe.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                synchronized(Pipe.this) {
+                    return mCount;
+                }
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte)b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Pipe.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        Pipe(int size) {
+            mBuf = new byte[size];
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return 0;
+
+            try {
+                while(mCount == 0) {
+                    if(mClosed) return -1;
+                    wait();
+                }
+            } catch(InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+
+            int n = Math.min(len, mCount);
+            for(int i = 0; i < n; i++) {
+                b[off + i] = mBuf[(mHead + i) % mBuf.length];
+            }
+            mHead = (mHead + n) % mBuf.length;
+            mCount -= n;
+            notifyAll();
+            return n;
+        }
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            try {
+                for(int i = 0; i < len; i++) {
+                    while(mCount == mBuf.length && !mClosed) {
+                        notifyAll();
+                        wait();
+                    }
+                    if(mClosed) throw new IOException("Pipe closed");
+
+                    mBuf[(mHead + mCount) % mBuf.length] = b[off + i];
+                    mCount++;
+                }
+                notifyAll();
+            } catch(InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        synchronized void close() {
+            mClosed = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.seabasssoftware.led_controller;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Decides when to try connecting again and remembers what worked last time.
+//
+// Failed attempts back off exponentially from BASE_DELAY_MS up to MAX_DELAY_MS, with each delay
+// picked at random between half and all of the current step so several clients don't retry in
+// lockstep. A clean disconnect (the board closed the link) retries immediately. The address and
+// connect method of the last successful connection are kept so they can be tried first, and are
+// forgotten after a few failures in a row in case the board has moved.
+public class ReconnectPolicy {
+    public static final long BASE_DELAY_MS = 250;
+    public static final long MAX_DELAY_MS = 30000;
+    private static final int MAX_FAILURES_WITH_REMEMBERED = 3;
+    private static final int HISTORY_SIZE = 32;
+
+    private final Random mRandom = new Random();
+    private final ArrayDeque<Attempt> mHistory = new ArrayDeque<Attempt>();
+    private int mFailures = 0;
+    private boolean mFastRetry = false;
+    private String mLastAddress;
+    private String mLastMethod;
+
+    // Record of a single connection attempt
+    public static class Attempt {
+        public final long startTimeMs;
+        public final long durationMs;
+        public final String address;
+        public final String method;
+        public final boolean success;
+        public final String error;
+
+        Attempt(long startTimeMs, long durationMs, String address, String method, boolean success,
+                String error) {
+            this.startTimeMs = startTimeMs;
+            this.durationMs = durationMs;
+            this.address = address;
+            this.method = method;
+            this.success = success;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return (success ? "OK " : "FAIL ") + address + " " + method + " " + durationMs + "ms" +
+                    (error != null ? " " + error : "");
+        }
+    }
+
+    // Restore the last good connection, e.g. from preferences
+    public synchronized void setLastConnection(String address, String method) {
+        mLastAddress = address;
+        mLastMethod = method;
+    }
+
+    public synchronized String getLastAddress() {
+        return mLastAddress;
+    }
+
+    public synchronized String getLastMethod() {
+        return mLastMethod;
+    }
+
+    // Delay before the next connection attempt
+    public synchronized long nextDelayMs() {
+        if(mFastRetry) {
+            mFastRetry = false;
+            return 0;
+        }
+
+        int shift = Math.min(Math.max(mFailures - 1, 0), 16);
+        long step = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << shift);
+        return step / 2 + (long)(mRandom.nextDouble() * (step / 2));
+    }
+
+    public synchronized void onSuccess(long startTimeMs, long durationMs, String address,
+                                       String method) {
+        mFailures = 0;
+        mLastAddress = address;
+        mLastMethod = method;
+        record(new Attempt(startTimeMs, durationMs, address, method, true, null));
+    }
+
+    public synchronized void onFailure(long startTimeMs, long durationMs, String address,
+                                       String method, String error) {
+        mFailures++;
+        if(mFailures >= MAX_FAILURES_WITH_REMEMBERED) {
+            mLastAddress = null;
+            mLastMethod = null;
+        }
+        record(new Attempt(startTimeMs, durationMs, address, method, false, error));
+    }
+
+    // Link went down after being connected. A clean close retries straight away, an error waits a
+    // short backoff step first.
+    public synchronized void onDisconnect(boolean clean) {
+        mFailures = clean ? 0 : 1;
+        mFastRetry = clean;
+    }
+
+    public synchronized int getFailureCount() {
+        return mFailures;
+    }
+
+    // Most recent attempts, oldest first
+    public synchronized List<Attempt> getHistory() {
+        return new ArrayList<Attempt>(mHistory);
+    }
+
+    private void record(Attempt attempt) {
+        if(mHistory.size() == HISTORY_SIZE) mHistory.removeFirst();
+        mHistory.addLast(attempt);
+    }
+}
@@ -0,0 +1,145 @@
+package com.seabasssoftware.led_controller;
+
+import java.nio.charset.StandardCharsets;
+
+// A single response from the board, split into its command code and arguments. Instances are
+// reused for every message, so integer arguments are decoded in place and strings are only
+// created when asked for.
+public class ResponseMessage {
+    public static final int MAX_ARGS = 64;
+
+    // Longest line kept. Anything longer is noise on the link, so the rest is dropped and the
+    // message marked invalid rather than growing the buffer without limit.
+    public static final int MAX_TEXT_LENGTH = 1024;
+
+    char code;
+    int argCount;
+    final int[] args = new int[MAX_ARGS];
+
+    // Raw text of the message, with the span of each argument in it. Binary frames only keep the
+    // text of string arguments, integer arguments get an empty span.
+    byte[] text = new byte[128];
+    int textLength;
+    boolean truncated;
+    final int[] argStart = new int[MAX_ARGS];
+    final int[] argEnd = new int[MAX_ARGS];
+
+    // Parse a text line, allocates so only for use off the receive path
+    public static ResponseMessage fromString(String line) {
+        ResponseMessage msg = new ResponseMessage();
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        for(byte b : bytes) msg.appendText(b);
+        msg.parseText();
+        return msg;
+    }
+
+    public char getCode() {
+        return code;
+    }
+
+    public int getArgCount() {
+        return argCount;
+    }
+
+    public int getInt(int index) {
+        return index < argCount ? args[index] : 0;
+    }
+
+    public String getString(int index) {
+        if(index >= argCount) return "";
+        if(argStart[index] == argEnd[index]) return Integer.toString(args[index]);
+        return new String(text, argStart[index], argEnd[index] - argStart[index],
+                StandardCharsets.US_ASCII);
+    }
+
+    void reset() {
+        code = 0;
+        argCount = 0;
+        textLength = 0;
+        truncated = false;
+    }
+
+    void appendText(int b) {
+        if(textLength == MAX_TEXT_LENGTH) {
+            truncated = true;
+            return;
+        }
+        if(textLength == text.length) {
+            byte[] bigger = new byte[text.length * 2];
+            System.arraycopy(text, 0, bigger, 0, textLength);
+            text = bigger;
+        }
+        text[textLength++] = (byte)b;
+    }
+
+    // Add an integer argument with no text of its own
+    void addInt(int value) {
+        if(argCount == MAX_ARGS) return;
+        argStart[argCount] = 0;
+        argEnd[argCount] = 0;
+        args[argCount++] = value;
+    }
+
+    // Add a string argument from the given bytes
+    void addString(byte[] buf, int off, int len) {
+        if(argCount == MAX_ARGS) return;
+        argStart[argCount] = textLength;
+        for(int i = 0; i < len; i++) appendText(buf[off + i]);
+        argEnd[argCount] = textLength;
+        args[argCount++] = 0;
+    }
+
+    // Split text into code and comma separated arguments. The code must be a letter and the line
+    // not cut short, otherwise the message is marked invalid with a zero code.
+    void parseText() {
+        argCount = 0;
+        if(textLength == 0 || truncated || !isLetter(text[0])) {
+            code = 0;
+            return;
+        }
+        code = (char)text[0];
+
+        int start = 1;
+        while(argCount < MAX_ARGS) {
+            int end = start;
+            while(end < textLength && text[end] != ',') end++;
+
+            argStart[argCount] = start;
+            argEnd[argCount] = end;
+            args[argCount++] = parseInt(start, end);
+
+            if(end >= textLength) break;
+            start = end + 1;
+        }
+    }
+
+    // Decode a decimal integer, non-numeric text is zero
+    private int parseInt(int start, int end) {
+        boolean negative = start < end && text[start] == '-';
+        if(negative) start++;
+        if(start == end) return 0;
+
+        int value = 0;
+        for(int i = start; i < end; i++) {
+            int digit = text[i] - '0';
+            if(digit < 0 || digit > 9) return 0;
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(code);
+        for(int i = 0; i < argCount; i++) {
+            if(i > 0) sb.append(',');
+            sb.append(getString(i));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package com.seabasssoftware.led_controller;
+
+// Fixed ring of reusable messages handed from the response thread to the main thread, so passing
+// a message across doesn't allocate anything. The reader fills the slot from beginWrite() and
+// publishes it with endWrite(); the consumer looks at peek() and frees the slot with remove().
+public class ResponseQueue {
+    private final ResponseMessage[] mSlots;
+    private int mHead = 0;
+    private int mCount = 0;
+
+    public ResponseQueue(int capacity) {
+        mSlots = new ResponseMessage[capacity];
+        for(int i = 0; i < capacity; i++) {
+            mSlots[i] = new ResponseMessage();
+        }
+    }
+
+    // Get the next free slot to read into, waiting for the consumer if all are in use
+    public synchronized ResponseMessage beginWrite() throws InterruptedException {
+        while(mCount == mSlots.length) {
+            wait();
+        }
+        return mSlots[(mHead + mCount) % mSlots.length];
+    }
+
+    // Publish the slot returned by beginWrite()
+    public synchronized void endWrite() {
+        mCount++;
+    }
+
+    // Oldest published message, or null if there is none
+    public synchronized ResponseMessage peek() {
+        return mCount == 0 ? null : mSlots[mHead];
+    }
+
+    // Release the message returned by peek() for reuse
+    public synchronized void remove() {
+        mHead = (mHead + 1) % mSlots.length;
+        mCount--;
+        notifyAll();
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+}
@@ -0,0 +1,73 @@
+package com.seabasssoftware.led_controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Splits the board's response stream into messages. Text lines end with a newline; binary frames
+// (see WireProtocol) are decoded straight into the same message form. All buffers are reused so
+// reading doesn't create any garbage.
+public class ResponseReader {
+    private final InputStream mStream;
+    private final byte[] mBuf = new byte[1024];
+    private int mPos = 0;
+    private int mLimit = 0;
+    private final byte[] mFrame = new byte[255];
+    private long mBytesRead = 0;
+
+    public ResponseReader(InputStream stream) {
+        mStream = stream;
+    }
+
+    // Read next message into msg, returns false at end of stream
+    public boolean read(ResponseMessage msg) throws IOException {
+        msg.reset();
+
+        while(true) {
+            int b = nextByte();
+            if(b < 0) return false;
+
+            if(b == WireProtocol.SYNC && msg.textLength == 0) {
+                if(readFrame(msg)) return true;
+                msg.reset();
+            } else if(b == '\n') {
+                // Skip blank lines
+                if(msg.textLength == 0) continue;
+                msg.parseText();
+                return true;
+            } else if(b != '\r') {
+                msg.appendText(b);
+            }
+        }
+    }
+
+    // Total bytes taken from the stream so far
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    private boolean readFrame(ResponseMessage msg) throws IOException {
+        int len = nextByte();
+        if(len <= 0) return false;
+
+        for(int n = 0; n < len; n++) {
+            int b = nextByte();
+            if(b < 0) return false;
+            mFrame[n] = (byte)b;
+        }
+
+        return WireProtocol.decode(mFrame, 0, len, msg);
+    }
+
+    private int nextByte() throws IOException {
+        if(mPos == mLimit) {
+            mLimit = mStream.read(mBuf, 0, mBuf.length);
+            mPos = 0;
+            if(mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+            mBytesRead += mLimit;
+        }
+        return mBuf[mPos++] & 0xFF;
+    }
+}
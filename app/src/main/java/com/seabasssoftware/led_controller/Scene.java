@@ -0,0 +1,71 @@
+package com.seabasssoftware.led_controller;
+
+import java.util.Arrays;
+
+// Named copy of every setting on the board: global brightness, section brightness and each layer's
+// pattern, arguments and animation. Recalling a scene puts its settings into a LedState, after
+// which only the ones that differ from what the board has need to be sent.
+public class Scene {
+    public final String name;
+    int globalBrightness;
+    int[] sectionBrightness;
+    int[] patternNum;
+    int[][] args;
+    int[] animSpeed;
+    int[] animStep;
+
+    Scene(String name, int numLayers) {
+        this.name = name;
+        sectionBrightness = new int[0];
+        patternNum = new int[numLayers];
+        args = new int[numLayers][];
+        animSpeed = new int[numLayers];
+        animStep = new int[numLayers];
+    }
+
+    public static Scene capture(String name, LedState state) {
+        Scene scene = new Scene(name, state.getLayerCount());
+        scene.globalBrightness = state.globalBrightness;
+        scene.sectionBrightness = state.sectionBrightness.clone();
+        for(int i = 0; i < state.getLayerCount(); i++) {
+            LedState.LayerSettings layer = state.getLayer(i);
+            scene.patternNum[i] = layer.patternNum;
+            scene.args[i] = layer.args.clone();
+            scene.animSpeed[i] = layer.animSpeed;
+            scene.animStep[i] = layer.animStep;
+        }
+        return scene;
+    }
+
+    public int getLayerCount() {
+        return patternNum.length;
+    }
+
+    // Put scene settings into state, returns the LedState.SCOPE_* bits that changed
+    public int applyTo(LedState state) {
+        int changes = LedState.SCOPE_NONE;
+
+        if(state.globalBrightness != globalBrightness) {
+            state.globalBrightness = globalBrightness;
+            changes |= LedState.SCOPE_GLOBAL;
+        }
+        if(!Arrays.equals(state.sectionBrightness, sectionBrightness)) {
+            state.sectionBrightness = sectionBrightness.clone();
+            changes |= LedState.SCOPE_SECTIONS;
+        }
+
+        for(int i = 0; i < getLayerCount(); i++) {
+            LedState.LayerSettings layer = state.getLayer(i);
+            if(layer.patternNum != patternNum[i] || !Arrays.equals(layer.args, args[i]) ||
+                    layer.animSpeed != animSpeed[i] || layer.animStep != animStep[i]) {
+                layer.patternNum = patternNum[i];
+                layer.args = args[i].clone();
+                layer.animSpeed = animSpeed[i];
+                layer.animStep = animStep[i];
+                changes |= LedState.layerScope(i);
+            }
+        }
+
+        return changes;
+    }
+}
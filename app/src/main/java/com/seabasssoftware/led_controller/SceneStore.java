@@ -0,0 +1,87 @@
+package com.seabasssoftware.led_controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Saved scenes on disk, in the order they were saved. Same layout conventions as StateCache: a
+// magic number and format version, then each scene's name, global settings and layers.
+public class SceneStore {
+    private static final int MAGIC = 0x4c454450; // "LEDP"
+    private static final int VERSION = 1;
+
+    private final File mFile;
+
+    public SceneStore(File file) {
+        mFile = file;
+    }
+
+    // Load saved scenes, empty if there are none or the file isn't usable
+    public ArrayList<Scene> load() {
+        ArrayList<Scene> scenes = new ArrayList<Scene>();
+        if(!mFile.exists()) return scenes;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) return scenes;
+
+            int numScenes = in.readUnsignedShort();
+            for(int n = 0; n < numScenes; n++) {
+                String name = in.readUTF();
+                Scene scene = new Scene(name, in.readUnsignedByte());
+                scene.globalBrightness = in.readInt();
+                scene.sectionBrightness = StateCache.readInts(in);
+                for(int i = 0; i < scene.getLayerCount(); i++) {
+                    scene.patternNum[i] = in.readInt();
+                    scene.args[i] = StateCache.readInts(in);
+                    scene.animSpeed[i] = in.readInt();
+                    scene.animStep[i] = in.readInt();
+                }
+                scenes.add(scene);
+            }
+        } catch(IOException e) {
+            scenes.clear();
+        } finally {
+            StateCache.closeQuietly(in);
+        }
+        return scenes;
+    }
+
+    // Write all scenes, replacing the old file only once the new one is complete
+    public void save(List<Scene> scenes) throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeShort(scenes.size());
+            for(Scene scene : scenes) {
+                out.writeUTF(scene.name);
+                out.writeByte(scene.getLayerCount());
+                out.writeInt(scene.globalBrightness);
+                StateCache.writeInts(out, scene.sectionBrightness);
+                for(int i = 0; i < scene.getLayerCount(); i++) {
+                    out.writeInt(scene.patternNum[i]);
+                    StateCache.writeInts(out, scene.args[i]);
+                    out.writeInt(scene.animSpeed[i]);
+                    out.writeInt(scene.animStep[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if(!tmp.renameTo(mFile)) {
+            throw new IOException("Failed to replace " + mFile);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.seabasssoftware.led_controller;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Plays a timeline to the board at a fixed frame rate on its own thread. Frames are due at fixed
+// points on the monotonic clock from the start, so timing doesn't drift with how long each frame
+// takes. The sink turns each frame into commands, sending only the settings that changed since
+// the last one.
+//
+// Frames are dropped rather than queued when the link is still busy with the previous one, and
+// when we fall behind by more than a frame, so the board always gets the latest frame instead of
+// a growing backlog.
+public class Sequencer implements Runnable {
+    private final Timeline mTimeline;
+    private final int mTargetFps;
+    private final boolean mLoop;
+    private final FrameSink mSink;
+
+    private volatile boolean mStopped = false;
+    private volatile long mStartNs = 0;
+    private volatile long mEndNs = 0;
+    private volatile long mFramesSent = 0;
+    private volatile long mFramesDropped = 0;
+    private Thread mThread;
+
+    // Where frames go, called on the sequencer thread
+    public interface FrameSink {
+        // Whether the link has finished with the previous frame
+        boolean isReady();
+        void sendFrame(Scene frame);
+
+        // Playback ended or was stopped, no more frames will come
+        void onFinished();
+    }
+
+    public Sequencer(Timeline timeline, int targetFps, boolean loop, FrameSink sink) {
+        mTimeline = timeline;
+        mTargetFps = Math.max(1, targetFps);
+        mLoop = loop;
+        mSink = sink;
+    }
+
+    public synchronized void start() {
+        if(mThread != null) return;
+        mThread = new Thread(this, "Sequencer");
+        mThread.start();
+    }
+
+    public synchronized void stop() {
+        mStopped = true;
+        if(mThread != null) LockSupport.unpark(mThread);
+    }
+
+    public boolean isRunning() {
+        return mThread != null && mThread.isAlive();
+    }
+
+    public int getTargetFps() {
+        return mTargetFps;
+    }
+
+    // Frames actually sent per second since start
+    public double getAchievedFps() {
+        long start = mStartNs;
+        if(start == 0) return 0;
+
+        long end = mEndNs != 0 ? mEndNs : System.nanoTime();
+        return end > start ? mFramesSent * 1e9 / (end - start) : 0;
+    }
+
+    public long getFramesSent() {
+        return mFramesSent;
+    }
+
+    public long getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    @Override
+    public void run() {
+        long periodNs = 1000000000L / mTargetFps;
+        long durationMs = mTimeline.getDurationMs();
+        long start = System.nanoTime();
+        long frame = 0;
+        mStartNs = start;
+
+        while(!mStopped) {
+            long now = System.nanoTime();
+            long due = start + frame * periodNs;
+            if(now < due) {
+                LockSupport.parkNanos(this, due - now);
+                continue;
+            }
+
+            // Skip frames whose time has already passed
+            long current = (now - start) / periodNs;
+            if(current > frame) {
+                mFramesDropped += current - frame;
+                frame = current;
+            }
+
+            long timeMs = frame * periodNs / 1000000;
+            boolean last = false;
+            if(timeMs >= durationMs) {
+                if(mLoop && durationMs > 0) {
+                    timeMs %= durationMs;
+                } else {
+                    timeMs = durationMs;
+                    last = true;
+                }
+            }
+
+            // The last frame has to go out even if we have to wait for it
+            if(mSink.isReady() || last) {
+                sendFrame(timeMs);
+            } else {
+                mFramesDropped++;
+            }
+            frame++;
+
+            if(last) break;
+        }
+
+        mEndNs = System.nanoTime();
+        mSink.onFinished();
+    }
+
+    private void sendFrame(long timeMs) {
+        Scene scene = mTimeline.sample(timeMs);
+        if(scene == null) return;
+
+        mSink.sendFrame(scene);
+        mFramesSent++;
+    }
+}
@@ -0,0 +1,337 @@
+package com.seabasssoftware.led_controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Stand-in for the LED controller board that speaks the same protocol, for measuring the command
+// pipeline without hardware. It answers "l" with its pattern list and "c" with a full state dump,
+// applies and echoes p/a/t/b/s commands, and answers the version query with its firmware version
+// and pattern list checksum when given a firmware version.
+//
+// The link is simulated one byte every ten bit times at the configured baud rate in both
+// directions, plus a processing delay with random jitter per command. Commands can be lost at
+// random, in which case they are neither applied nor echoed.
+public class SimulatedController implements Runnable {
+    private static final int NUM_LAYERS = 4;
+    private static final int NUM_SECTIONS = 4;
+
+    private final InputStream mIn;
+    private final OutputStream mOut;
+
+    // Link settings
+    private volatile int mBaudRate = 0;
+    private volatile long mProcessingDelayUs = 0;
+    private volatile long mJitterUs = 0;
+    private volatile double mLossRate = 0.0;
+    private volatile boolean mEchoCommands = true;
+    private volatile int mFirmwareVersion = 0;
+    private volatile int mFirmwareFeatures = 0;
+    private final Random mRandom = new Random(1);
+
+    // Board state
+    private final List<String> mPatterns = new ArrayList<String>(Arrays.asList(
+            "Off",
+            "Solid,Red,0,255,Green,0,255,Blue,0,255",
+            "Rainbow,Saturation,0,255,Value,0,255,Width,1,100",
+            "Chase,Hue,0,255,Length,1,50,Fade,0,255"));
+    private final int[][] mLayerPattern = new int[NUM_LAYERS][];
+    private final int[] mLayerSpeed = new int[NUM_LAYERS];
+    private final int[] mLayerStep = new int[NUM_LAYERS];
+    private int mBrightness = 128;
+    private final int[] mSections = new int[NUM_SECTIONS];
+
+    // Stats
+    private volatile long mCommandsReceived = 0;
+    private volatile long mCommandsDropped = 0;
+    private volatile long mResponsesSent = 0;
+
+    private volatile boolean mBinaryOffered = false;
+    private Thread mThread;
+
+    public SimulatedController(InputStream in, OutputStream out) {
+        mIn = in;
+        mOut = out;
+
+        for(int i = 0; i < NUM_LAYERS; i++) {
+            mLayerPattern[i] = new int[] {0, 0, 0, 0};
+            mLayerSpeed[i] = 30;
+            mLayerStep[i] = 1;
+        }
+        Arrays.fill(mSections, 255);
+    }
+
+    // Simulate a board on the far end of an in-memory transport
+    public SimulatedController(PipeTransport transport) {
+        this(transport.getRemoteInputStream(), transport.getRemoteOutputStream());
+    }
+
+    // Link speed in bits per second, zero for no limit
+    public SimulatedController setBaudRate(int baud) {
+        mBaudRate = baud;
+        return this;
+    }
+
+    // Time to handle each command, with up to +/- jitter added at random
+    public SimulatedController setProcessingDelay(long delayUs, long jitterUs) {
+        mProcessingDelayUs = delayUs;
+        mJitterUs = jitterUs;
+        return this;
+    }
+
+    // Fraction of commands that are lost, 0 to 1
+    public SimulatedController setLossRate(double rate) {
+        mLossRate = rate;
+        return this;
+    }
+
+    // Old firmware doesn't echo applied settings back
+    public SimulatedController setEchoCommands(boolean echo) {
+        mEchoCommands = echo;
+        return this;
+    }
+
+    // Answer the version query, a zero version leaves it unanswered like old firmware
+    public SimulatedController setFirmware(int version, int features) {
+        mFirmwareVersion = version;
+        mFirmwareFeatures = features;
+        return this;
+    }
+
+    public SimulatedController setSeed(long seed) {
+        synchronized(mRandom) {
+            mRandom.setSeed(seed);
+        }
+        return this;
+    }
+
+    public long getCommandsReceived() {
+        return mCommandsReceived;
+    }
+
+    public long getCommandsDropped() {
+        return mCommandsDropped;
+    }
+
+    public long getResponsesSent() {
+        return mResponsesSent;
+    }
+
+    public synchronized void start() {
+        if(mThread != null) return;
+        mThread = new Thread(this, "SimulatedController");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public synchronized void stop() {
+        if(mThread == null) return;
+        mThread.interrupt();
+        try {
+            mIn.close();
+            mOut.close();
+        } catch(IOException e) {
+            // Nothing to do
+        }
+        mThread = null;
+    }
+
+    @Override
+    public void run() {
+        ResponseMessage msg = new ResponseMessage();
+        byte[] frame = new byte[255];
+
+        try {
+            while(!Thread.currentThread().isInterrupted()) {
+                int b = mIn.read();
+                if(b < 0) break;
+                linkDelay(1);
+
+                msg.reset();
+                if(b == WireProtocol.SYNC) {
+                    int len = mIn.read();
+                    if(len <= 0) continue;
+                    for(int n = 0; n < len; n++) {
+                        int c = mIn.read();
+                        if(c < 0) return;
+                        frame[n] = (byte)c;
+                    }
+                    linkDelay(len + 1);
+                    if(!WireProtocol.decode(frame, 0, len, msg)) continue;
+                } else if(b == 'l' || b == 'c') {
+                    // Queries are a single character, possibly followed by a newline we'll skip
+                    msg.appendText(b);
+                    msg.parseText();
+                } else if(b == '\n' || b == '\r') {
+                    continue;
+                } else {
+                    int len = 1;
+                    msg.appendText(b);
+                    for(int c = mIn.read(); c != '\n'; c = mIn.read()) {
+                        if(c < 0) return;
+                        if(c != '\r') msg.appendText(c);
+                        len++;
+                    }
+                    linkDelay(len);
+                    msg.parseText();
+                }
+
+                handleCommand(msg);
+            }
+        } catch(IOException e) {
+            // Link closed
+        } catch(InterruptedException e) {
+            // Stopped
+        }
+    }
+
+    private void handleCommand(ResponseMessage msg) throws IOException, InterruptedException {
+        mCommandsReceived++;
+
+        long delayUs = mProcessingDelayUs;
+        boolean lost;
+        synchronized(mRandom) {
+            if(mJitterUs > 0) delayUs += (long)((mRandom.nextDouble() * 2.0 - 1.0) * mJitterUs);
+            lost = mRandom.nextDouble() < mLossRate;
+        }
+        if(delayUs > 0) sleepUs(delayUs);
+
+        if(lost) {
+            mCommandsDropped++;
+            return;
+        }
+
+        int layer = msg.getInt(0);
+        switch(msg.getCode()) {
+            case 'v':
+                if(mFirmwareVersion == 0) return;
+                mBinaryOffered = msg.getInt(0) > 0;
+                send("v" + mFirmwareVersion + "," + mFirmwareFeatures + "," + catalogChecksum());
+                break;
+
+            case 'l':
+                for(int i = 0; i < mPatterns.size(); i++) {
+                    send("l" + i + "," + mPatterns.get(i));
+                }
+                break;
+
+            case 'c':
+                send("b" + mBrightness);
+                send("s" + join(mSections, 0));
+                for(int i = 0; i < NUM_LAYERS; i++) {
+                    send("p" + i + "," + join(mLayerPattern[i], 0));
+                    send("a" + i + "," + mLayerSpeed[i]);
+                    send("t" + i + "," + mLayerStep[i]);
+                }
+                break;
+
+            case 'b':
+                mBrightness = msg.getInt(0);
+                if(mEchoCommands) send("b" + mBrightness);
+                break;
+
+            case 's':
+                for(int i = 0; i < NUM_SECTIONS; i++) mSections[i] = msg.getInt(i);
+                if(mEchoCommands) send("s" + join(mSections, 0));
+                break;
+
+            case 'p':
+                if(layer < 0 || layer >= NUM_LAYERS) return;
+                for(int i = 0; i < mLayerPattern[layer].length; i++) {
+                    mLayerPattern[layer][i] = msg.getInt(i + 1);
+                }
+                if(mEchoCommands) send("p" + layer + "," + join(mLayerPattern[layer], 0));
+                break;
+
+            case 'a':
+                if(layer < 0 || layer >= NUM_LAYERS) return;
+                mLayerSpeed[layer] = msg.getInt(1);
+                if(mEchoCommands) send("a" + layer + "," + mLayerSpeed[layer]);
+                break;
+
+            case 't':
+                if(layer < 0 || layer >= NUM_LAYERS) return;
+                mLayerStep[layer] = msg.getInt(1);
+                if(mEchoCommands) send("t" + layer + "," + mLayerStep[layer]);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    // Positive checksum of the pattern list, changes whenever the list does
+    private int catalogChecksum() {
+        return mPatterns.hashCode() & 0x7FFFFFFF;
+    }
+
+    // Send a response line, as a binary frame if that was negotiated and it fits
+    private void send(String line) throws IOException, InterruptedException {
+        line = line + "\n";
+        byte[] frame = null;
+        if(mBinaryOffered && (mFirmwareFeatures & LedState.FEATURE_BINARY_PROTOCOL) != 0) {
+            frame = WireProtocol.encode(line);
+        }
+        if(frame == null) frame = line.getBytes(StandardCharsets.US_ASCII);
+
+        linkDelay(frame.length);
+        mOut.write(frame);
+        mOut.flush();
+        mResponsesSent++;
+    }
+
+    // Wait as long as the given number of bytes take on the link
+    private void linkDelay(int bytes) throws InterruptedException {
+        int baud = mBaudRate;
+        if(baud > 0) sleepUs(bytes * 10L * 1000000L / baud);
+    }
+
+    private static void sleepUs(long us) throws InterruptedException {
+        if(us > 0) Thread.sleep(us / 1000, (int)(us % 1000) * 1000);
+    }
+
+    private static String join(int[] values, int start) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = start; i < values.length; i++) {
+            if(i > start) sb.append(',');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    // Serve simulated boards over TCP, one per connection, e.g. for TcpTransport
+    public static void serve(int port, int baud, long delayUs, long jitterUs, double loss)
+            throws IOException {
+        ServerSocket server = new ServerSocket(port);
+        try {
+            while(true) {
+                Socket s = server.accept();
+                s.setTcpNoDelay(true);
+                new SimulatedController(s.getInputStream(), s.getOutputStream())
+                        .setBaudRate(baud)
+                        .setProcessingDelay(delayUs, jitterUs)
+                        .setLossRate(loss)
+                        .setFirmware(1, LedState.FEATURE_BINARY_PROTOCOL)
+                        .start();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    // Usage: SimulatedController <port> [baud] [delay us] [jitter us] [loss rate]
+    public static void main(String[] args) throws IOException {
+        serve(Integer.parseInt(args[0]),
+                args.length > 1 ? Integer.parseInt(args[1]) : 9600,
+                args.length > 2 ? Long.parseLong(args[2]) : 1000,
+                args.length > 3 ? Long.parseLong(args[3]) : 0,
+                args.length > 4 ? Double.parseDouble(args[4]) : 0.0);
+    }
+}
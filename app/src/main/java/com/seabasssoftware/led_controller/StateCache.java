@@ -0,0 +1,165 @@
+package com.seabasssoftware.led_controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+// Snapshot of the last known LED state on disk, so the UI has something to show right away on
+// launch instead of waiting for the board. The board's own state replaces it once connected.
+//
+// Format is a magic number and format version followed by the pattern catalog, global settings
+// and layers, written with DataOutputStream. Snapshots with an unknown version are ignored.
+public class StateCache {
+    private static final int MAGIC = 0x4c454453; // "LEDS"
+    private static final int VERSION = 2;
+
+    private final File mFile;
+
+    public StateCache(File file) {
+        mFile = file;
+    }
+
+    // Load snapshot, or return null if there isn't a usable one
+    public LedState load() {
+        if(!mFile.exists()) return null;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+
+            LedState state = new LedState();
+            state.firmwareVersion = in.readInt();
+            state.firmwareFeatures = in.readInt();
+
+            readPatterns(in, state);
+
+            state.globalBrightness = in.readInt();
+            state.sectionBrightness = readInts(in);
+
+            int numLayers = in.readUnsignedByte();
+            for(int i = 0; i < numLayers; i++) {
+                LedState.LayerSettings layer = state.getLayer(i);
+                layer.patternNum = in.readInt();
+                layer.args = readInts(in);
+                layer.animSpeed = in.readInt();
+                layer.animStep = in.readInt();
+            }
+
+            return state;
+        } catch(IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    public void save(LedState state) throws IOException {
+        save(state.snapshot());
+    }
+
+    // Write snapshot, replacing the old one only once the new one is complete. Snapshots are
+    // immutable, so this can run on any thread.
+    public void save(LedState.Snapshot state) throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(state.firmwareVersion);
+            out.writeInt(state.firmwareFeatures);
+
+            writePatterns(out, state.patterns);
+
+            out.writeInt(state.globalBrightness);
+            out.writeByte(state.getSectionCount());
+            for(int i = 0; i < state.getSectionCount(); i++) {
+                out.writeInt(state.getSection(i));
+            }
+
+            out.writeByte(state.getLayerCount());
+            for(int i = 0; i < state.getLayerCount(); i++) {
+                LedState.Layer layer = state.getLayer(i);
+                out.writeInt(layer.patternNum);
+                out.writeByte(layer.getArgCount());
+                for(int j = 0; j < layer.getArgCount(); j++) {
+                    out.writeInt(layer.getArg(j));
+                }
+                out.writeInt(layer.animSpeed);
+                out.writeInt(layer.animStep);
+            }
+        } finally {
+            out.close();
+        }
+
+        if(!tmp.renameTo(mFile)) {
+            throw new IOException("Failed to replace " + mFile);
+        }
+    }
+
+    // Read pattern catalog into state's pattern list
+    static void readPatterns(DataInputStream in, LedState state) throws IOException {
+        int numPatterns = in.readUnsignedShort();
+        for(int i = 0; i < numPatterns; i++) {
+            LedState.PatternInfo pattern = state.new PatternInfo();
+            pattern.name = in.readUTF();
+
+            int numArgs = in.readUnsignedByte();
+            for(int j = 0; j < numArgs; j++) {
+                LedState.PatternArgInfo arg = state.new PatternArgInfo(in.readUTF(), in.readInt(),
+                        in.readInt());
+                arg.curve = ParamCurve.of(in.readUnsignedByte(), arg.start, arg.end,
+                        in.readDouble());
+                pattern.args.add(arg);
+            }
+            state.patterns.add(pattern);
+        }
+    }
+
+    static void writePatterns(DataOutputStream out, List<LedState.PatternInfo> patterns)
+            throws IOException {
+        out.writeShort(patterns.size());
+        for(LedState.PatternInfo pattern : patterns) {
+            out.writeUTF(pattern.name);
+            out.writeByte(pattern.args.size());
+            for(LedState.PatternArgInfo arg : pattern.args) {
+                out.writeUTF(arg.name);
+                out.writeInt(arg.start);
+                out.writeInt(arg.end);
+                out.writeByte(arg.curve.getType());
+                out.writeDouble(arg.curve.getShape());
+            }
+        }
+    }
+
+    static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readUnsignedByte()];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeByte(values.length);
+        for(int v : values) {
+            out.writeInt(v);
+        }
+    }
+
+    static void closeQuietly(DataInputStream in) {
+        if(in == null) return;
+        try {
+            in.close();
+        } catch(IOException e) {
+            // Nothing to do
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.seabasssoftware.led_controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+// TCP link, for boards behind a serial-to-TCP bridge or a simulator on another machine
+public class TcpTransport implements LedTransport {
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+
+    private final String mHost;
+    private final int mPort;
+    private final Socket mSocket = new Socket();
+
+    public TcpTransport(String host, int port) {
+        mHost = host;
+        mPort = port;
+    }
+
+    public static Factory factory(final String host, final int port) {
+        return new Factory() {
+            @Override
+            public LedTransport create() {
+                return new TcpTransport(host, port);
+            }
+        };
+    }
+
+    @Override
+    public void connect() throws IOException {
+        mSocket.connect(new InetSocketAddress(mHost, mPort), CONNECT_TIMEOUT_MS);
+
+        // Commands are tiny and latency matters more than packet count
+        mSocket.setTcpNoDelay(true);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    @Override
+    public String getConnectMethod() {
+        return "tcp";
+    }
+
+    @Override
+    public String getAddress() {
+        return mHost + ":" + mPort;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+}
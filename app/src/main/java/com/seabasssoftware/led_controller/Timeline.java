@@ -0,0 +1,79 @@
+package com.seabasssoftware.led_controller;
+
+import java.util.ArrayList;
+
+// Keyframes of scenes at points in time. Sampling between two keyframes blends global brightness,
+// section brightness and layer arguments linearly. Pattern, animation speed and step can't be
+// blended meaningfully and hold the earlier keyframe's values until the next keyframe, as do
+// arguments of a layer that switches pattern.
+public class Timeline {
+    private final ArrayList<Keyframe> mKeyframes = new ArrayList<Keyframe>();
+
+    public static class Keyframe {
+        public final long timeMs;
+        public final Scene scene;
+
+        Keyframe(long timeMs, Scene scene) {
+            this.timeMs = timeMs;
+            this.scene = scene;
+        }
+    }
+
+    // Add keyframe, replacing any other at the same time
+    public void addKeyframe(long timeMs, Scene scene) {
+        int i = 0;
+        while(i < mKeyframes.size() && mKeyframes.get(i).timeMs < timeMs) i++;
+        if(i < mKeyframes.size() && mKeyframes.get(i).timeMs == timeMs) mKeyframes.remove(i);
+        mKeyframes.add(i, new Keyframe(timeMs, scene));
+    }
+
+    public int getKeyframeCount() {
+        return mKeyframes.size();
+    }
+
+    public long getDurationMs() {
+        return mKeyframes.isEmpty() ? 0 : mKeyframes.get(mKeyframes.size() - 1).timeMs;
+    }
+
+    // Settings at the given time, or null if there are no keyframes
+    public Scene sample(long timeMs) {
+        if(mKeyframes.isEmpty()) return null;
+
+        int next = 0;
+        while(next < mKeyframes.size() && mKeyframes.get(next).timeMs <= timeMs) next++;
+        if(next == 0) return mKeyframes.get(0).scene;
+        if(next == mKeyframes.size()) return mKeyframes.get(next - 1).scene;
+
+        Keyframe a = mKeyframes.get(next - 1);
+        Keyframe b = mKeyframes.get(next);
+        return blend(a.scene, b.scene, (double)(timeMs - a.timeMs) / (b.timeMs - a.timeMs));
+    }
+
+    private static Scene blend(Scene a, Scene b, double f) {
+        Scene s = new Scene(a.name, a.getLayerCount());
+        s.globalBrightness = lerp(a.globalBrightness, b.globalBrightness, f);
+        s.sectionBrightness = lerp(a.sectionBrightness, b.sectionBrightness, f);
+
+        for(int i = 0; i < a.getLayerCount(); i++) {
+            s.patternNum[i] = a.patternNum[i];
+            s.animSpeed[i] = a.animSpeed[i];
+            s.animStep[i] = a.animStep[i];
+
+            boolean samePattern = i < b.getLayerCount() && b.patternNum[i] == a.patternNum[i];
+            s.args[i] = samePattern ? lerp(a.args[i], b.args[i], f) : a.args[i].clone();
+        }
+        return s;
+    }
+
+    private static int lerp(int a, int b, double f) {
+        return a + (int)Math.round((b - a) * f);
+    }
+
+    private static int[] lerp(int[] a, int[] b, double f) {
+        int[] values = a.clone();
+        if(b.length != a.length) return values;
+
+        for(int i = 0; i < values.length; i++) values[i] = lerp(a[i], b[i], f);
+        return values;
+    }
+}
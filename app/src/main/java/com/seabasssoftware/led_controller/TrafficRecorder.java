@@ -0,0 +1,172 @@
+package com.seabasssoftware.led_controller;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+// Log of every command line sent to the board and every line received from it, with
+// System.nanoTime() timestamps, for reproducing field problems later with TrafficReplay.
+//
+// The log is a memory-mapped file used as a ring of fixed size, so recording is just a copy into
+// memory and a long session keeps only its most recent traffic. The header holds the logical
+// offsets of the oldest record and the end of the newest; each record is a direction byte, an
+// eight byte timestamp, a two byte length and the line itself without its newline, in UTF-8.
+// Records may wrap around the end of the ring.
+public class TrafficRecorder implements Closeable {
+    public static final int OUTBOUND = 1;
+    public static final int INBOUND = 2;
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private static final int MAGIC = 0x4c454452; // "LEDR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int HEAD_OFFSET = 16;
+    private static final int TAIL_OFFSET = 24;
+    private static final int RECORD_HEADER_SIZE = 11;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuf;
+    private final int mCapacity;
+    private long mHead;
+    private long mTail;
+
+    public static class Record {
+        public final int direction;
+        public final long timeNs;
+        public final String line;
+
+        Record(int direction, long timeNs, String line) {
+            this.direction = direction;
+            this.timeNs = timeNs;
+            this.line = line;
+        }
+
+        @Override
+        public String toString() {
+            return (direction == OUTBOUND ? "> " : "< ") + timeNs + " " + line;
+        }
+    }
+
+    // Open log, continuing an existing one with the same capacity or starting a new one
+    public TrafficRecorder(File file, int capacity) throws IOException {
+        mCapacity = capacity;
+        mFile = new RandomAccessFile(file, "rw");
+        try {
+            mBuf = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + capacity);
+        } catch(IOException e) {
+            mFile.close();
+            throw e;
+        }
+
+        if(mBuf.getInt(0) == MAGIC && mBuf.getInt(4) == VERSION && mBuf.getInt(8) == capacity) {
+            mHead = mBuf.getLong(HEAD_OFFSET);
+            mTail = mBuf.getLong(TAIL_OFFSET);
+        } else {
+            mBuf.putInt(0, MAGIC);
+            mBuf.putInt(4, VERSION);
+            mBuf.putInt(8, capacity);
+            clear();
+        }
+    }
+
+    // Read every record in a log file, oldest first
+    public static List<Record> read(File file) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            if(f.length() < HEADER_SIZE || f.readInt() != MAGIC || f.readInt() != VERSION) {
+                throw new IOException("Not a traffic log: " + file);
+            }
+            int capacity = f.readInt();
+            TrafficRecorder recorder = new TrafficRecorder(file, capacity);
+            try {
+                return recorder.readAll();
+            } finally {
+                recorder.close();
+            }
+        } finally {
+            f.close();
+        }
+    }
+
+    // Append a line, dropping the oldest records if the ring is full
+    public synchronized void record(int direction, long timeNs, String line) {
+        int end = line.length();
+        while(end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) end--;
+        byte[] bytes = line.substring(0, end).getBytes(UTF8);
+
+        int length = Math.min(bytes.length, 0xFFFF);
+        int size = RECORD_HEADER_SIZE + length;
+        if(size > mCapacity) return;
+
+        while(mTail + size - mHead > mCapacity) {
+            mHead += RECORD_HEADER_SIZE + lengthAt(mHead);
+        }
+
+        long pos = mTail;
+        put(pos++, (byte)direction);
+        for(int shift = 56; shift >= 0; shift -= 8) put(pos++, (byte)(timeNs >>> shift));
+        put(pos++, (byte)(length >>> 8));
+        put(pos++, (byte)length);
+        for(int i = 0; i < length; i++) put(pos++, bytes[i]);
+
+        mTail = pos;
+        mBuf.putLong(HEAD_OFFSET, mHead);
+        mBuf.putLong(TAIL_OFFSET, mTail);
+    }
+
+    public synchronized List<Record> readAll() {
+        ArrayList<Record> records = new ArrayList<Record>();
+        long pos = mHead;
+        while(pos < mTail) {
+            int direction = get(pos++);
+            long timeNs = 0;
+            for(int i = 0; i < 8; i++) timeNs = (timeNs << 8) | (get(pos++) & 0xFF);
+            int length = lengthAt(pos - 9);
+            pos += 2;
+
+            byte[] bytes = new byte[length];
+            for(int i = 0; i < length; i++) bytes[i] = get(pos++);
+            records.add(new Record(direction, timeNs, new String(bytes, UTF8)));
+        }
+        return records;
+    }
+
+    // Bytes of records currently held
+    public synchronized long size() {
+        return mTail - mHead;
+    }
+
+    public synchronized void clear() {
+        mHead = 0;
+        mTail = 0;
+        mBuf.putLong(HEAD_OFFSET, 0);
+        mBuf.putLong(TAIL_OFFSET, 0);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mBuf.force();
+        mFile.close();
+    }
+
+    // Line length of the record starting at pos
+    private int lengthAt(long pos) {
+        return ((get(pos + 9) & 0xFF) << 8) | (get(pos + 10) & 0xFF);
+    }
+
+    private byte get(long pos) {
+        return mBuf.get(HEADER_SIZE + (int)(pos % mCapacity));
+    }
+
+    private void put(long pos, byte b) {
+        mBuf.put(HEADER_SIZE + (int)(pos % mCapacity), b);
+    }
+}
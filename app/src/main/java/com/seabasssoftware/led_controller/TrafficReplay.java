@@ -0,0 +1,161 @@
+package com.seabasssoftware.led_controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+// Plays back a TrafficRecorder log with the gaps between lines as recorded, optionally sped up or
+// slowed down, so a problem seen in the field can be reproduced against the simulator, a real
+// board, the app's send pipeline or its state handling. Lines are due at fixed points on the
+// monotonic clock from the start, so timing doesn't drift with how long each one takes to deliver.
+public class TrafficReplay {
+    private final List<TrafficRecorder.Record> mRecords;
+    private double mSpeed = 1.0;
+    private long mLinesReplayed = 0;
+    private long mMaxLagNs = 0;
+
+    // Where replayed lines go, called on the thread running the replay
+    public interface Target {
+        // Line the app sent to the board
+        void onOutbound(String line) throws IOException;
+
+        // Line the board sent to the app
+        void onInbound(String line) throws IOException;
+    }
+
+    public TrafficReplay(List<TrafficRecorder.Record> records) {
+        mRecords = records;
+    }
+
+    public static TrafficReplay load(File file) throws IOException {
+        return new TrafficReplay(TrafficRecorder.read(file));
+    }
+
+    // Playback speed relative to the recording, zero or less for as fast as possible
+    public TrafficReplay setSpeed(double speed) {
+        mSpeed = speed;
+        return this;
+    }
+
+    public long getLinesReplayed() {
+        return mLinesReplayed;
+    }
+
+    // Furthest any line went out behind its recorded time
+    public long getMaxLagNs() {
+        return mMaxLagNs;
+    }
+
+    // Play every record to the target, returning how long it took
+    public long run(Target target) throws IOException, InterruptedException {
+        mLinesReplayed = 0;
+        mMaxLagNs = 0;
+        if(mRecords.isEmpty()) return 0;
+
+        long first = mRecords.get(0).timeNs;
+        long start = System.nanoTime();
+        for(TrafficRecorder.Record r : mRecords) {
+            if(mSpeed > 0) {
+                long due = start + (long)((r.timeNs - first) / mSpeed);
+                long now = System.nanoTime();
+                while(now < due) {
+                    LockSupport.parkNanos(due - now);
+                    if(Thread.interrupted()) throw new InterruptedException();
+                    now = System.nanoTime();
+                }
+                mMaxLagNs = Math.max(mMaxLagNs, now - due);
+            }
+
+            if(r.direction == TrafficRecorder.OUTBOUND) {
+                target.onOutbound(r.line);
+            } else {
+                target.onInbound(r.line);
+            }
+            mLinesReplayed++;
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Feed the board's side of the conversation into a LedState, as if it came over the link
+    public static Target stateTarget(final LedState state) {
+        return new Target() {
+            @Override
+            public void onOutbound(String line) {
+                // Only responses change what the app knows
+            }
+
+            @Override
+            public void onInbound(String line) {
+                state.updateFromString(line);
+            }
+        };
+    }
+
+    // Write the app's side of the conversation to a board, simulated or real
+    public static Target streamTarget(final OutputStream out) {
+        return new Target() {
+            @Override
+            public void onOutbound(String line) throws IOException {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+
+            @Override
+            public void onInbound(String line) {
+                // The board on the far end answers for itself
+            }
+        };
+    }
+
+    // Replay the commands in a log to a simulated board and report how it kept up.
+    // Usage: TrafficReplay <log file> [speed] [baud]
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TrafficReplay replay = load(new File(args[0]))
+                .setSpeed(args.length > 1 ? Double.parseDouble(args[1]) : 1.0);
+
+        PipeTransport link = new PipeTransport("replay");
+        SimulatedController board = new SimulatedController(link)
+                .setBaudRate(args.length > 2 ? Integer.parseInt(args[2]) : 9600)
+                .setFirmware(1, 0);
+        board.start();
+
+        // Keep the board's responses from backing up the link
+        final InputStream responses = link.getInputStream();
+        Thread drain = new Thread("ReplayDrain") {
+            @Override
+            public void run() {
+                byte[] buf = new byte[256];
+                try {
+                    while(responses.read(buf) >= 0) {
+                        // Discard
+                    }
+                } catch(IOException e) {
+                    // Link closed
+                }
+            }
+        };
+        drain.setDaemon(true);
+        drain.start();
+
+        long elapsedNs = replay.run(streamTarget(link.getOutputStream()));
+
+        // Let the board work through whatever is still on the link
+        long received;
+        do {
+            received = board.getCommandsReceived();
+            Thread.sleep(200);
+        } while(board.getCommandsReceived() != received);
+        board.stop();
+        link.close();
+
+        System.out.println(String.format(Locale.US,
+                "Replayed %d lines in %.1f ms, max lag %.1f ms, board received %d commands",
+                replay.getLinesReplayed(), elapsedNs / 1e6, replay.getMaxLagNs() / 1e6,
+                board.getCommandsReceived()));
+    }
+}
@@ -0,0 +1,101 @@
+package com.seabasssoftware.led_controller;
+
+import java.io.ByteArrayOutputStream;
+
+// Compact binary encoding of the p/a/t/b/s/l/c messages, used when the board says it supports it.
+//
+// A frame is a sync byte (never valid at the start of a text line), the payload length, the
+// command code and then the arguments as unsigned LEB128 varints. Layer commands carry the layer
+// number as their first argument, same as in text. Pattern list ("l") responses also carry strings,
+// encoded as a varint length followed by the bytes.
+//
+// Binary capable firmware still accepts text lines, so anything that can't be encoded (or wouldn't
+// get any shorter) is simply sent as text.
+public class WireProtocol {
+    public static final int SYNC = 0xA5;
+
+    // Sent on connect to offer binary frames. Capable firmware answers
+    // "v<version>,<features>,<catalog checksum>".
+    public static final String NEGOTIATE_COMMAND = "v1\n";
+
+    private WireProtocol() {}
+
+    // Encode a text command line as a binary frame, or return null to send it as text
+    public static byte[] encode(String line) {
+        int end = line.length();
+        if(end > 0 && line.charAt(end - 1) == '\n') end--;
+        if(end == 0) return null;
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(end);
+        int start = 1;
+        while(start < end) {
+            int comma = line.indexOf(',', start);
+            if(comma < 0 || comma > end) comma = end;
+
+            long value = 0;
+            if(comma == start) return null;
+            for(int i = start; i < comma; i++) {
+                char c = line.charAt(i);
+                if(c < '0' || c > '9') return null;
+                value = value * 10 + (c - '0');
+                if(value > Integer.MAX_VALUE) return null;
+            }
+            writeVarint(payload, (int)value);
+            start = comma + 1;
+        }
+
+        int len = payload.size() + 1;
+        if(len > 255 || len + 2 >= line.length()) return null;
+
+        byte[] frame = new byte[len + 2];
+        frame[0] = (byte)SYNC;
+        frame[1] = (byte)len;
+        frame[2] = (byte)line.charAt(0);
+        System.arraycopy(payload.toByteArray(), 0, frame, 3, len - 1);
+        return frame;
+    }
+
+    // Decode a frame body (command code followed by payload) into msg, returns false if malformed
+    public static boolean decode(byte[] buf, int off, int len, ResponseMessage msg) {
+        msg.reset();
+        msg.code = (char)(buf[off] & 0xFF);
+
+        int pos = off + 1;
+        int end = off + len;
+        for(int argIndex = 0; pos < end; argIndex++) {
+            // Read varint
+            int value = 0;
+            int shift = 0;
+            while(true) {
+                if(pos >= end || shift > 28) return false;
+                int b = buf[pos++] & 0xFF;
+                value |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0) break;
+                shift += 7;
+            }
+
+            if(isStringArg(msg.code, argIndex)) {
+                if(value < 0 || pos + value > end) return false;
+                msg.addString(buf, pos, value);
+                pos += value;
+            } else {
+                msg.addInt(value);
+            }
+        }
+
+        return true;
+    }
+
+    // Pattern list lines are "l<index>,<name>" followed by "<arg name>,<start>,<end>" triples
+    static boolean isStringArg(char code, int argIndex) {
+        return code == 'l' && argIndex > 0 && argIndex % 3 == 1;
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,102 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class CatalogCacheTest {
+    private static File tempDir() throws Exception {
+        File dir = File.createTempFile("catalogs", "");
+        dir.delete();
+        return dir;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if(files != null) {
+            for(File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void identityNeedsAddressAndFirmware() {
+        LedState state = new LedState();
+        assertNull(CatalogCache.identity("00:11:22:33:44:55", state));
+
+        state.updateFromString("v3,0,1234");
+        assertNull(CatalogCache.identity(null, state));
+        assertEquals("00:11:22:33:44:55/3/1234",
+                CatalogCache.identity("00:11:22:33:44:55", state));
+    }
+
+    @Test
+    public void catalogRoundTrips() throws Exception {
+        LedState state = new LedState();
+        state.updateFromString("v3,0,1234");
+        state.updateFromString("l0,Off");
+        state.updateFromString("l1,Solid,Red,0,255,Green,0,255,Blue,0,255");
+        String identity = CatalogCache.identity("board", state);
+
+        File dir = tempDir();
+        CatalogCache cache = new CatalogCache(dir);
+        cache.save(identity, state.snapshot());
+
+        LedState loaded = new LedState();
+        assertTrue(cache.load(identity, loaded));
+        assertEquals(2, loaded.patterns.size());
+        assertEquals("Solid", loaded.patterns.get(1).name);
+        assertEquals("Blue", loaded.patterns.get(1).args.get(2).name);
+
+        deleteDir(dir);
+    }
+
+    @Test
+    public void otherIdentityLoadsNothing() throws Exception {
+        LedState state = new LedState();
+        state.updateFromString("v3,0,1234");
+        state.updateFromString("l0,Off");
+
+        File dir = tempDir();
+        CatalogCache cache = new CatalogCache(dir);
+        cache.save(CatalogCache.identity("board", state), state);
+
+        // Same board with new firmware, and another board with the same firmware
+        LedState loaded = new LedState();
+        assertFalse(cache.load("board/4/1234", loaded));
+        assertFalse(cache.load("other/3/1234", loaded));
+        assertTrue(loaded.patterns.isEmpty());
+
+        deleteDir(dir);
+    }
+
+    @Test
+    public void argCurvesComeFromCatalogAndAreSaved() throws Exception {
+        LedState state = new LedState();
+        state.updateFromString("v3,0,1234");
+        state.updateFromString("l0,Chase,Speed,0,255,Level,0,255,Width,1,20");
+        LedState.PatternInfo chase = state.patterns.get(0);
+        assertEquals(ParamCurve.LOG, chase.args.get(0).curve.getType());
+        assertEquals(ParamCurve.GAMMA, chase.args.get(1).curve.getType());
+        assertEquals(ParamCurve.LINEAR, chase.args.get(2).curve.getType());
+
+        // A curve set from code lasts through the cache
+        chase.args.get(2).curve = ParamCurve.log(1, 20, 1);
+        String identity = CatalogCache.identity("board", state);
+        File dir = tempDir();
+        CatalogCache cache = new CatalogCache(dir);
+        cache.save(identity, state.snapshot());
+
+        LedState loaded = new LedState();
+        assertTrue(cache.load(identity, loaded));
+        ParamCurve width = loaded.patterns.get(0).args.get(2).curve;
+        assertEquals(ParamCurve.LOG, width.getType());
+        assertEquals(1, width.getShape(), 0);
+        assertEquals(ParamCurve.log(1, 20, 1).toWire(10), width.toWire(10));
+        assertEquals(ParamCurve.GAMMA, loaded.patterns.get(0).args.get(1).curve.getType());
+
+        deleteDir(dir);
+    }
+}
@@ -0,0 +1,35 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockOffsetEstimatorTest {
+    @Test
+    public void fastestRoundTripSetsDelay() throws Exception {
+        ClockOffsetEstimator clock = new ClockOffsetEstimator();
+        assertFalse(clock.hasEstimate());
+        assertEquals(0, clock.getDelayNs());
+
+        clock.addSample(0, 30000000);
+        clock.addSample(100, 20000100);
+        clock.addSample(200, 50000200);
+        assertEquals(10000000, clock.getDelayNs());
+        assertEquals(10000000, clock.getErrorBoundNs());
+        assertEquals(30000000, clock.getJitterNs());
+    }
+
+    @Test
+    public void flowControlFeedsAckedRoundTrips() throws Exception {
+        ClockOffsetEstimator clock = new ClockOffsetEstimator();
+        FlowControl fc = new FlowControl(2, 10000);
+        fc.setClockEstimator(clock);
+        fc.onSent("b0\n");
+        fc.onResponse(ResponseMessage.fromString("b0"));
+        assertEquals(0, clock.getSampleCount());
+
+        fc.onSent("a1,50\n");
+        fc.onResponse(ResponseMessage.fromString("a1,50"));
+        assertEquals(1, clock.getSampleCount());
+    }
+}
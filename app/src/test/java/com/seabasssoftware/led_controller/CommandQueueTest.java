@@ -0,0 +1,137 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CommandQueueTest {
+    @Test
+    public void newerLayerUpdateReplacesPending() throws Exception {
+        CommandQueue q = new CommandQueue();
+        q.offer("p0,1,2,3,4\na0,10\nt0,1\n");
+        q.offer("p1,5,0,0,0\n");
+        q.offer("p0,1,9,9,9\n");
+
+        assertEquals(4, q.size());
+        assertEquals("p0,1,9,9,9\n", q.poll());
+        assertEquals("a0,10\n", q.poll());
+        assertEquals("t0,1\n", q.poll());
+        assertEquals("p1,5,0,0,0\n", q.poll());
+        assertNull(q.poll());
+        assertEquals(1, q.getCoalescedCount());
+    }
+
+    @Test
+    public void queriesAreNeverCoalesced() throws Exception {
+        CommandQueue q = new CommandQueue();
+        q.offer("l");
+        q.offer("c");
+        q.offer("c");
+        q.offer("b100\n");
+        q.offer("b200\n");
+
+        assertEquals("l", q.poll());
+        assertEquals("c", q.poll());
+        assertEquals("c", q.poll());
+        assertEquals("b200\n", q.poll());
+        assertTrue(q.isEmpty());
+    }
+
+    @Test
+    public void scheduledCommandsWaitUntilDue() throws Exception {
+        CommandQueue q = new CommandQueue();
+        long start = System.nanoTime();
+        CommandQueue.Scheduled later = new CommandQueue.Scheduled("p0,1,0,0,0\n",
+                start + TimeUnit.MILLISECONDS.toNanos(20), null);
+        q.offerAt(later);
+
+        assertNull(q.pollDue());
+        assertNull(q.poll());
+        assertEquals(later.dueNs, q.getNextDueNs());
+
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(later.dueNs - System.nanoTime()) + 1);
+        assertSame(later, q.pollDue());
+        assertEquals(Long.MAX_VALUE, q.getNextDueNs());
+
+        later.markWritten(123);
+        assertEquals(123, later.getWrittenNs());
+    }
+
+    @Test
+    public void scheduledCommandReplacesPendingLines() throws Exception {
+        CommandQueue q = new CommandQueue();
+        q.offer("b10\np0,1,0,0,0\np1,2,0,0,0\n");
+        q.offerAt(new CommandQueue.Scheduled("p0,3,0,0,0\nb20\n", System.nanoTime(), null));
+
+        // Only the layer the scheduled command doesn't touch is still pending
+        assertEquals(1, q.size());
+        assertEquals("p1,2,0,0,0\n", q.poll());
+        assertEquals("p0,3,0,0,0\nb20\n", q.pollDue().cmd);
+        assertEquals(2, q.getCoalescedCount());
+    }
+
+    @Test
+    public void pollWithoutWaiting() throws Exception {
+        CommandQueue q = new CommandQueue();
+        assertNull(q.poll());
+        assertEquals(Long.MAX_VALUE, q.getNextDueNs());
+
+        q.offer("b1\n");
+        q.offerAt(new CommandQueue.Scheduled("c", 42, null));
+        assertEquals(42, q.getNextDueNs());
+        assertEquals("b1\n", q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void scheduledCommandTakesOverReceipts() throws Exception {
+        CommandQueue q = new CommandQueue();
+        CommandReceipt drag = new CommandReceipt(1, System.nanoTime());
+        q.offer("b10\n", drag);
+
+        // Scene burst setting the same brightness
+        CommandQueue.Scheduled burst = new CommandQueue.Scheduled("p0,3,0,0,0\nb20\n",
+                System.nanoTime(), null);
+        q.offerAt(burst);
+        assertTrue(q.isEmpty());
+        assertNull(burst.getReceipts("p0,3,0,0,0\n"));
+        assertEquals(1, burst.getReceipts("b20\n").size());
+
+        // Echo of the burst's line confirms the replaced one
+        FlowControl fc = new FlowControl(4, 10000);
+        fc.onSent("b0\n");
+        fc.onResponse(ResponseMessage.fromString("b0"));
+        fc.onSent("p0,3,0,0,0\n", 10, burst.getReceipts("p0,3,0,0,0\n"));
+        fc.onSent("b20\n", 4, burst.getReceipts("b20\n"));
+        fc.onResponse(ResponseMessage.fromString("b20"));
+        assertEquals(CommandReceipt.CONFIRMED, drag.getStatus());
+
+        // Receipts of a scheduled command that never goes out fail
+        CommandReceipt dropped = new CommandReceipt(2, System.nanoTime());
+        q.offer("b30\n", dropped);
+        q.offerAt(new CommandQueue.Scheduled("b40\n", System.nanoTime() + 1000000000L, null));
+        q.clear();
+        assertEquals(CommandReceipt.FAILED, dropped.getStatus());
+    }
+
+    @Test
+    public void droppedScheduledCommandStillCallsBack() throws Exception {
+        // Link drops with a synced write still waiting to go out
+        final int[] calls = new int[1];
+        CommandQueue q = new CommandQueue();
+        CommandQueue.Scheduled later = new CommandQueue.Scheduled("b40\n",
+                System.nanoTime() + 1000000000L, new Runnable() {
+            @Override
+            public void run() {
+                calls[0]++;
+            }
+        });
+        q.offerAt(later);
+        q.clear();
+        assertEquals(1, calls[0]);
+        assertEquals(-1, later.getWrittenNs());
+        assertNull(q.pollDue());
+    }
+}
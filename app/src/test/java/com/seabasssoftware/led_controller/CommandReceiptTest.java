@@ -0,0 +1,95 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CommandReceiptTest {
+    @Test
+    public void confirmedOnceEveryLineIsEchoed() throws Exception {
+        CommandQueue q = new CommandQueue();
+        FlowControl fc = new FlowControl(4, 10000);
+        LinkMetrics metrics = new LinkMetrics();
+        fc.setMetrics(metrics);
+        fc.onSent("b0\n");
+        fc.onResponse(ResponseMessage.fromString("b0"));
+
+        CommandReceipt receipt = new CommandReceipt(1, System.nanoTime());
+        q.offer("b10\ns1,2,3,4\n", receipt);
+
+        String line = q.poll();
+        fc.onSent(line, line.length(), q.getPolledReceipts());
+        line = q.poll();
+        fc.onSent(line, line.length(), q.getPolledReceipts());
+
+        fc.onResponse(ResponseMessage.fromString("b10"));
+        assertFalse(receipt.isDone());
+        fc.onResponse(ResponseMessage.fromString("s1,2,3,4"));
+        assertTrue(receipt.await(0, TimeUnit.MILLISECONDS));
+        assertEquals(CommandReceipt.CONFIRMED, receipt.getStatus());
+        assertTrue(receipt.getLatencyNs() >= 0);
+        assertEquals(1, metrics.editToConfirmUs.getCount());
+    }
+
+    @Test
+    public void replacedLineIsConfirmedByItsReplacement() throws Exception {
+        CommandQueue q = new CommandQueue();
+        FlowControl fc = new FlowControl(4, 10000);
+        fc.onSent("b0\n");
+        fc.onResponse(ResponseMessage.fromString("b0"));
+
+        CommandReceipt first = new CommandReceipt(1, System.nanoTime());
+        CommandReceipt second = new CommandReceipt(2, System.nanoTime());
+        q.offer("b10\n", first);
+        q.offer("b20\n", second);
+
+        String line = q.poll();
+        assertEquals("b20\n", line);
+        assertEquals(2, q.getPolledReceipts().size());
+        fc.onSent(line, line.length(), q.getPolledReceipts());
+        fc.onResponse(ResponseMessage.fromString("b20"));
+
+        assertEquals(CommandReceipt.CONFIRMED, first.getStatus());
+        assertEquals(CommandReceipt.CONFIRMED, second.getStatus());
+    }
+
+    @Test
+    public void failsWhenDroppedOrNeverAcked() throws Exception {
+        CommandQueue q = new CommandQueue();
+        CommandReceipt dropped = new CommandReceipt(1, System.nanoTime());
+        q.offer("b10\n", dropped);
+        q.clear();
+        assertEquals(CommandReceipt.FAILED, dropped.getStatus());
+
+        FlowControl fc = new FlowControl(1, 0);
+        fc.onSent("b0\n");
+        fc.onResponse(ResponseMessage.fromString("b0"));
+        final CommandReceipt[] done = new CommandReceipt[1];
+        CommandReceipt lost = new CommandReceipt(2, System.nanoTime());
+        lost.setListener(new CommandReceipt.Listener() {
+            @Override
+            public void onCommandDone(CommandReceipt receipt) {
+                done[0] = receipt;
+            }
+        });
+        lost.addLine();
+        fc.onSent("b10\n", 4, Collections.singletonList(lost));
+        fc.getSlotDelayMs();
+        assertSame(lost, done[0]);
+        assertEquals(CommandReceipt.FAILED, lost.getStatus());
+    }
+
+    @Test
+    public void doneOnWriteWhenBoardDoesNotEcho() throws Exception {
+        FlowControl fc = new FlowControl();
+        assertTrue(fc.isPaced());
+
+        CommandReceipt receipt = new CommandReceipt(1, System.nanoTime());
+        receipt.addLine();
+        fc.onSent("b10\n", 4, Collections.singletonList(receipt));
+        assertEquals(CommandReceipt.UNCONFIRMED, receipt.getStatus());
+    }
+}
@@ -0,0 +1,140 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FlowControlTest {
+    @Test
+    public void echoesAckMatchingCommands() throws Exception {
+        FlowControl fc = new FlowControl(2, 10000);
+        assertTrue(fc.isPaced());
+
+        // First echo of a setting switches to windowed mode
+        fc.onSent("b0\n");
+        fc.onResponse(ResponseMessage.fromString("b0"));
+        assertFalse(fc.isPaced());
+
+        fc.onSent("p0,1,2,3,4\n");
+        fc.onSent("a1,50\n");
+        assertEquals(2, fc.getInFlightCount());
+
+        fc.onResponse(ResponseMessage.fromString("a1,50"));
+        assertEquals(1, fc.getInFlightCount());
+        fc.onResponse(ResponseMessage.fromString("p0,1,2,3,4"));
+        assertEquals(0, fc.getInFlightCount());
+    }
+
+    @Test
+    public void stateDumpAckedByAnyLine() throws Exception {
+        FlowControl fc = new FlowControl(2, 10000);
+        fc.onSent("b0\n");
+        fc.onResponse(ResponseMessage.fromString("b0"));
+
+        fc.onSent("c");
+        fc.onResponse(ResponseMessage.fromString("s1,2,3,4"));
+        assertEquals(0, fc.getInFlightCount());
+    }
+
+    @Test
+    public void fallsBackToPacingWithoutAcks() throws Exception {
+        FlowControl fc = new FlowControl(1, 0);
+        fc.onSent("b0\n");
+        fc.onResponse(ResponseMessage.fromString("b0"));
+
+        for(int i = 0; i < 8; i++) {
+            fc.getSlotDelayMs();
+            fc.onSent("b" + i + "\n");
+        }
+        fc.getSlotDelayMs();
+        assertTrue(fc.isPaced());
+    }
+
+    @Test
+    public void slotDelayCoversFullWindowUntilAck() throws Exception {
+        FlowControl fc = new FlowControl(1, 10000);
+        fc.onSent("b0\n");
+        fc.onResponse(ResponseMessage.fromString("b0"));
+        assertEquals(0, fc.getSlotDelayMs());
+
+        fc.onSent("b1\n");
+        long delay = fc.getSlotDelayMs();
+        assertTrue(delay > 9000 && delay <= 10000);
+
+        fc.onResponse(ResponseMessage.fromString("b1"));
+        assertEquals(0, fc.getSlotDelayMs());
+    }
+
+    @Test
+    public void queryRepliesDontEndPacing() throws Exception {
+        // Board answers queries but never echoes settings
+        FlowControl fc = new FlowControl(4, 10000);
+        fc.onSent("l");
+        fc.onResponse(ResponseMessage.fromString("l0,Off"));
+        fc.onSent("v");
+        fc.onResponse(ResponseMessage.fromString("v1"));
+        assertTrue(fc.isPaced());
+
+        fc.onSent("p0,1,2,3,4\n");
+        fc.onResponse(ResponseMessage.fromString("p1,1,2,3,4"));
+        fc.onResponse(ResponseMessage.fromString("l0,Off"));
+        assertTrue(fc.isPaced());
+        assertEquals(0, fc.getInFlightCount());
+        assertTrue(fc.getSlotDelayMs() > 0);
+
+        // An echo of what was sent does
+        fc.onResponse(ResponseMessage.fromString("p0,1,2,3,4"));
+        assertFalse(fc.isPaced());
+    }
+
+    @Test
+    public void stateDumpIsNotTakenForEchoes() throws Exception {
+        // Board that doesn't echo, answering the state dump asked for on connect
+        FlowControl fc = new FlowControl(4, 10000);
+        fc.onSent("c");
+        fc.onSent("b100\n");
+        fc.onSent("p0,1,2,3,4\n");
+        fc.onResponse(ResponseMessage.fromString("b100"));
+        fc.onResponse(ResponseMessage.fromString("p0,1,2,3,4"));
+        assertTrue(fc.isPaced());
+
+        // Without a dump under way, only a reply with the values sent is an echo
+        fc = new FlowControl(4, 10000);
+        fc.onSent("p0,1,2,3,4\n");
+        fc.onResponse(ResponseMessage.fromString("p0,1,9,9,9"));
+        assertTrue(fc.isPaced());
+        fc.onResponse(ResponseMessage.fromString("p0,1,2,3,4"));
+        assertFalse(fc.isPaced());
+    }
+
+    @Test
+    public void lossesOnlyCountOnceTheBoardHasAcked() throws Exception {
+        FlowControl fc = new FlowControl(1, 0);
+        LinkRatePacer pacer = new LinkRatePacer();
+        fc.setPacer(pacer);
+        fc.onSent("b0\n");
+        fc.onResponse(ResponseMessage.fromString("b0"));
+
+        // Nothing acked in windowed mode yet, timeouts leave the rate alone
+        for(int i = 0; i < 3; i++) {
+            fc.onSent("b" + i + "\n");
+            fc.getSlotDelayMs();
+        }
+        assertEquals(LinkRatePacer.DEFAULT_RATE, pacer.getRate(), 0.001);
+
+        fc.onSent("b9\n");
+        fc.onResponse(ResponseMessage.fromString("b9"));
+        for(int i = 0; i < 7; i++) {
+            fc.onSent("b" + i + "\n");
+            fc.getSlotDelayMs();
+        }
+        assertFalse(fc.isPaced());
+        assertTrue(pacer.getRate() < LinkRatePacer.DEFAULT_RATE);
+
+        // Falling back to pacing restores the default rate
+        fc.onSent("b7\n");
+        fc.getSlotDelayMs();
+        assertTrue(fc.isPaced());
+        assertEquals(LinkRatePacer.DEFAULT_RATE, pacer.getRate(), 0.001);
+    }
+}
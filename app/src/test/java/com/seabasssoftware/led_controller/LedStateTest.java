@@ -0,0 +1,62 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LedStateTest {
+    @Test
+    public void snapshotIsUnaffectedByLaterChanges() {
+        LedState state = new LedState();
+        state.updateFromString("b10");
+        state.updateFromString("s1,2,3,4");
+        state.updateFromString("p0,1,10,20,30");
+
+        LedState.Snapshot before = state.snapshot();
+        state.updateFromString("b20");
+        state.updateFromString("s5,6,7");
+        state.updateFromString("p0,1,11,21");
+
+        assertEquals(10, before.globalBrightness);
+        assertEquals(4, before.getSectionCount());
+        assertEquals(4, before.getSection(3));
+        assertEquals(3, before.getLayer(0).getArgCount());
+        assertEquals(10, before.getLayer(0).getArg(0));
+
+        LedState.Snapshot after = state.snapshot();
+        assertEquals(20, after.globalBrightness);
+        assertEquals(3, after.getSectionCount());
+        assertEquals(11, after.getLayer(0).getArg(0));
+        assertEquals(before.version + 1, after.version);
+    }
+
+    @Test
+    public void unchangedPartsAreShared() {
+        LedState state = new LedState();
+        state.updateFromString("l0,Off");
+        state.updateFromString("p0,0,1,2,3");
+        state.updateFromString("p1,0,4,5,6");
+
+        LedState.Snapshot first = state.snapshot();
+        assertSame(first, state.snapshot());
+
+        state.updateFromString("p1,0,4,5,7");
+        LedState.Snapshot second = state.snapshot();
+        assertNotSame(first, second);
+        assertSame(first.getLayer(0), second.getLayer(0));
+        assertNotSame(first.getLayer(1), second.getLayer(1));
+        assertSame(first.patterns, second.patterns);
+
+        state.updateFromString("l1,Solid,Red,0,255");
+        LedState.Snapshot third = state.snapshot();
+        assertEquals(2, third.patterns.size());
+        assertEquals(1, second.patterns.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotCatalogIsReadOnly() {
+        LedState state = new LedState();
+        state.updateFromString("l0,Off");
+        state.snapshot().patterns.clear();
+    }
+}
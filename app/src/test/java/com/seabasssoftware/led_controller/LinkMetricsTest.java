@@ -0,0 +1,50 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LinkMetricsTest {
+    @Test
+    public void histogramPercentiles() throws Exception {
+        LinkMetrics.Histogram h = new LinkMetrics.Histogram();
+        for(int i = 1; i <= 100; i++) h.add(i);
+
+        assertEquals(100, h.getCount());
+        assertEquals(50, h.getMean());
+        assertEquals(100, h.getMax());
+        assertEquals(63, h.getPercentile(0.5));
+        assertEquals(100, h.getPercentile(0.99));
+    }
+
+    @Test
+    public void flowControlRecordsEchoesAndDrops() throws Exception {
+        LinkMetrics metrics = new LinkMetrics();
+        FlowControl fc = new FlowControl(1, 0);
+        fc.setMetrics(metrics);
+        fc.onSent("b0\n");
+        fc.onResponse(ResponseMessage.fromString("b0"));
+
+        fc.onSent("a1,50\n", 4);
+        fc.onResponse(ResponseMessage.fromString("a1,50"));
+        assertEquals(1, metrics.writeToEchoUs.getCount());
+
+        fc.onSent("a1,60\n", 4);
+        fc.getSlotDelayMs();
+        assertEquals(1, metrics.getCommandsDropped());
+    }
+
+    @Test
+    public void queueKeepsFirstEnqueueTime() throws Exception {
+        CommandQueue q = new CommandQueue();
+        long before = System.nanoTime();
+        q.offer("b1\n");
+        Thread.sleep(5);
+        q.offer("b2\n");
+
+        assertEquals("b2\n", q.poll());
+        assertTrue(q.getPolledEnqueuedNs() - before < TimeUnit.MILLISECONDS.toNanos(5));
+    }
+}
@@ -0,0 +1,48 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LinkRatePacerTest {
+    @Test
+    public void bucketLimitsRate() throws Exception {
+        LinkRatePacer pacer = new LinkRatePacer();
+        long start = System.nanoTime();
+        for(int i = 0; i < 10; i++) {
+            long delayNs;
+            while((delayNs = pacer.getTokenDelayNs()) > 0) {
+                Thread.sleep(delayNs / 1000000, (int)(delayNs % 1000000));
+            }
+            pacer.consume(24);
+        }
+
+        // 240 bytes with a 64 byte burst at 960 bytes/s takes at least 150 ms
+        assertTrue(System.nanoTime() - start >= 150000000L);
+    }
+
+    @Test
+    public void tokenDelayCoversDebt() throws Exception {
+        LinkRatePacer pacer = new LinkRatePacer();
+        assertEquals(0, pacer.getTokenDelayNs());
+
+        // 96 bytes over the burst at 960 bytes/s is about 100 ms of debt
+        pacer.consume(160);
+        long delay = pacer.getTokenDelayNs();
+        assertTrue(delay > 90000000L && delay <= 100000000L);
+    }
+
+    @Test
+    public void backsOffWhenRoundTripsGrowAndOnLoss() throws Exception {
+        LinkRatePacer pacer = new LinkRatePacer();
+        pacer.onAck(20, 10000000);
+        Thread.sleep(120);
+        pacer.onAck(20, 50000000);
+        assertTrue(pacer.getRate() < LinkRatePacer.DEFAULT_RATE);
+        assertEquals(10000000, pacer.getMinRttNs());
+
+        double rate = pacer.getRate();
+        pacer.onLoss();
+        assertEquals(Math.max(LinkRatePacer.MIN_RATE, rate / 2), pacer.getRate(), 0.001);
+    }
+}
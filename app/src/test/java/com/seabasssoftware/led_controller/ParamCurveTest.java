@@ -0,0 +1,56 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ParamCurveTest {
+    @Test
+    public void animSpeedMatchesOldFormulas() {
+        for(int pos = 0; pos <= 1000; pos++) {
+            int wire = (int)Math.pow(10.0, (double)(1000 - pos) / 1000.0 * 3.0) - 1;
+            assertEquals(wire, ParamCurve.ANIM_SPEED.toWire(pos));
+        }
+        for(int wire = 0; wire < 1000; wire++) {
+            int pos = 1000 - (int)(Math.log10(wire + 1) / 3.0 * 1000.0);
+            assertEquals(pos, ParamCurve.ANIM_SPEED.toPosition(wire));
+        }
+    }
+
+    @Test
+    public void gammaRoundTripsAndIsMonotonic() {
+        ParamCurve curve = ParamCurve.gamma(0, 255, ParamCurve.BRIGHTNESS_GAMMA);
+        assertEquals(0, curve.toWire(0));
+        assertEquals(255, curve.toWire(255));
+        assertTrue(curve.toWire(128) < 128);
+
+        for(int pos = 1; pos <= 255; pos++) {
+            assertTrue(curve.toWire(pos) >= curve.toWire(pos - 1));
+            assertEquals(curve.toWire(pos), curve.toWire(curve.toPosition(curve.toWire(pos))));
+        }
+    }
+
+    @Test
+    public void stateSendsAndParsesThroughCurves() {
+        LedState state = new LedState();
+        state.brightnessCurve = ParamCurve.gamma(0, 255, ParamCurve.BRIGHTNESS_GAMMA);
+        state.updateFromString("l0,Solid,Red,0,255");
+        state.patterns.get(0).args.get(0).curve = ParamCurve.log(0, 255, 2);
+
+        state.globalBrightness = 128;
+        int wire = state.brightnessCurve.toWire(128);
+        assertTrue(state.getChangedGlobalConfigCommand().startsWith("b" + wire + "\n"));
+
+        // Echo of the value we sent leaves the slider where the user put it
+        state.updateFromString("b" + wire);
+        assertEquals(128, state.globalBrightness);
+        assertEquals(LedState.SCOPE_NONE, state.takeChanges() & LedState.SCOPE_GLOBAL);
+
+        LedState.LayerSettings layer = state.getLayer(0);
+        layer.args = new int[] {255};
+        assertEquals("p0,0,255\n", layer.getPatternCommand());
+        layer.args[0] = 128;
+        int argWire = ParamCurve.log(0, 255, 2).toWire(128);
+        assertEquals("p0,0," + argWire + "\n", layer.getPatternCommand());
+    }
+}
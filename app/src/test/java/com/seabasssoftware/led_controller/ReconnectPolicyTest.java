@@ -0,0 +1,41 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReconnectPolicyTest {
+    @Test
+    public void backsOffAndForgetsRememberedDevice() throws Exception {
+        ReconnectPolicy policy = new ReconnectPolicy();
+        policy.setLastConnection("00:11:22:33:44:55", BluetoothTransport.METHOD_CHANNEL_1);
+
+        long last = 0;
+        for(int i = 1; i <= 8; i++) {
+            policy.onFailure(0, 10, "00:11:22:33:44:55", "rfcomm", "timeout");
+            long delay = policy.nextDelayMs();
+            long step = Math.min(ReconnectPolicy.MAX_DELAY_MS, ReconnectPolicy.BASE_DELAY_MS << (i - 1));
+            assertTrue(delay >= step / 2 && delay <= step);
+            assertTrue(delay >= last / 2);
+            last = delay;
+        }
+        assertNull(policy.getLastAddress());
+        assertEquals(8, policy.getHistory().size());
+        assertFalse(policy.getHistory().get(0).success);
+    }
+
+    @Test
+    public void cleanDisconnectRetriesImmediately() throws Exception {
+        ReconnectPolicy policy = new ReconnectPolicy();
+        policy.onSuccess(0, 10, "sim", "pipe");
+        assertEquals("sim", policy.getLastAddress());
+        assertEquals("pipe", policy.getLastMethod());
+
+        policy.onDisconnect(true);
+        assertEquals(0, policy.nextDelayMs());
+        assertTrue(policy.nextDelayMs() <= ReconnectPolicy.BASE_DELAY_MS);
+
+        policy.onDisconnect(false);
+        assertTrue(policy.nextDelayMs() > 0);
+    }
+}
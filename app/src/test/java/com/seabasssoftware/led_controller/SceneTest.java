@@ -0,0 +1,61 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SceneTest {
+    @Test
+    public void recallSendsOnlyDifferences() throws Exception {
+        LedState state = new LedState();
+        state.updateFromString("b100");
+        state.updateFromString("s1,2,3,4");
+        state.updateFromString("p0,1,10,20,30");
+        state.updateFromString("a0,30");
+        state.updateFromString("t0,1");
+        state.updateFromString("p1,2,0,0,0");
+        state.updateFromString("a1,30");
+        state.updateFromString("t1,1");
+        Scene scene = Scene.capture("show", state);
+
+        // Board moves on from the scene
+        state.updateFromString("b50");
+        state.updateFromString("p1,3,5,5,5");
+        state.takeChanges();
+
+        int changes = scene.applyTo(state);
+        assertEquals(LedState.SCOPE_GLOBAL | LedState.layerScope(1), changes);
+
+        String cmd = state.getChangedCommand();
+        assertTrue(cmd.startsWith("b100\np1,2,0,0,0\n"));
+        assertFalse(cmd.contains("p0,"));
+        assertFalse(cmd.contains("s"));
+        assertEquals("", state.getChangedCommand());
+    }
+
+    @Test
+    public void scenesRoundTrip() throws Exception {
+        LedState state = new LedState();
+        state.updateFromString("b77");
+        state.updateFromString("p2,1,10,20,30");
+
+        File file = File.createTempFile("scenes", ".bin");
+        SceneStore store = new SceneStore(file);
+        store.save(Arrays.asList(Scene.capture("a", state), Scene.capture("b", new LedState())));
+
+        List<Scene> loaded = store.load();
+        assertEquals(2, loaded.size());
+        assertEquals("a", loaded.get(0).name);
+        assertEquals(3, loaded.get(0).getLayerCount());
+
+        LedState recalled = new LedState();
+        loaded.get(0).applyTo(recalled);
+        assertEquals(77, recalled.globalBrightness);
+        assertArrayEquals(new int[] {10, 20, 30}, recalled.getLayer(2).args);
+        file.delete();
+    }
+}
@@ -0,0 +1,108 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SequencerTest {
+    private static Timeline fade() {
+        LedState state = new LedState();
+        state.updateFromString("b0");
+        state.updateFromString("p0,1,0,0,0");
+        Scene from = Scene.capture("from", state);
+
+        state.updateFromString("b200");
+        state.updateFromString("p0,1,100,0,0");
+        Scene to = Scene.capture("to", state);
+
+        Timeline timeline = new Timeline();
+        timeline.addKeyframe(100, to);
+        timeline.addKeyframe(0, from);
+        return timeline;
+    }
+
+    @Test
+    public void timelineBlendsBetweenKeyframes() throws Exception {
+        Timeline timeline = fade();
+        assertEquals(100, timeline.getDurationMs());
+
+        Scene mid = timeline.sample(25);
+        assertEquals(50, mid.globalBrightness);
+        assertArrayEquals(new int[] {25, 0, 0}, mid.args[0]);
+        assertEquals(200, timeline.sample(500).globalBrightness);
+    }
+
+    @Test
+    public void streamsFramesAndEndsOnLastKeyframe() throws Exception {
+        final List<String> frames = new ArrayList<String>();
+        final LedState frameState = new LedState();
+        final boolean[] finished = new boolean[1];
+        Sequencer seq = new Sequencer(fade(), 100, false, new Sequencer.FrameSink() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void sendFrame(Scene frame) {
+                frame.applyTo(frameState);
+                synchronized(frames) {
+                    frames.add(frameState.getChangedCommand());
+                }
+            }
+
+            @Override
+            public void onFinished() {
+                finished[0] = true;
+            }
+        });
+        seq.start();
+        for(int i = 0; i < 200 && seq.isRunning(); i++) Thread.sleep(10);
+
+        assertFalse(seq.isRunning());
+        assertTrue(finished[0]);
+        assertTrue(seq.getFramesSent() + seq.getFramesDropped() >= 11);
+        assertTrue(frames.get(frames.size() - 1).contains("b200\n"));
+        assertTrue(seq.getAchievedFps() > 0);
+    }
+
+    @Test
+    public void framesUseEachBoardsCurves() throws Exception {
+        LedState board = new LedState();
+        board.brightnessCurve = ParamCurve.gamma(0, 255, ParamCurve.BRIGHTNESS_GAMMA);
+        LedState frameState = board.copyMapping();
+
+        Scene mid = fade().sample(50);
+        assertEquals(100, mid.globalBrightness);
+        mid.applyTo(frameState);
+        String cmd = frameState.getChangedCommand();
+        assertTrue(cmd.startsWith("b" + board.brightnessCurve.toWire(100) + "\n"));
+        assertFalse(cmd.startsWith("b100\n"));
+    }
+
+    @Test
+    public void dropsFramesWhileLinkIsBusy() throws Exception {
+        Sequencer seq = new Sequencer(fade(), 100, false, new Sequencer.FrameSink() {
+            @Override
+            public boolean isReady() {
+                return false;
+            }
+
+            @Override
+            public void sendFrame(Scene frame) {
+            }
+
+            @Override
+            public void onFinished() {
+            }
+        });
+        seq.start();
+        for(int i = 0; i < 200 && seq.isRunning(); i++) Thread.sleep(10);
+
+        assertEquals(1, seq.getFramesSent());
+        assertTrue(seq.getFramesDropped() >= 10);
+    }
+}
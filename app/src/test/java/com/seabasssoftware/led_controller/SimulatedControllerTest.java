@@ -0,0 +1,70 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class SimulatedControllerTest {
+    @Test
+    public void answersQueriesAndEchoesCommands() throws Exception {
+        PipeTransport link = new PipeTransport("sim");
+        SimulatedController sim = new SimulatedController(link).setFirmware(3, 0);
+        sim.start();
+
+        OutputStream out = link.getOutputStream();
+        ResponseReader reader = new ResponseReader(link.getInputStream());
+        ResponseMessage msg = new ResponseMessage();
+
+        out.write("v1\n".getBytes());
+        assertTrue(reader.read(msg));
+        assertEquals('v', msg.getCode());
+        assertEquals(3, msg.getInt(0));
+        assertTrue(msg.getInt(2) != 0);
+
+        out.write("l".getBytes());
+        for(int i = 0; i < 4; i++) {
+            assertTrue(reader.read(msg));
+            assertEquals('l', msg.getCode());
+            assertEquals(i, msg.getInt(0));
+        }
+
+        out.write("a2,99\n".getBytes());
+        assertTrue(reader.read(msg));
+        assertEquals("a2,99", msg.toString());
+
+        out.write("c".getBytes());
+        assertTrue(reader.read(msg));
+        assertEquals('b', msg.getCode());
+        assertTrue(reader.read(msg));
+        assertEquals('s', msg.getCode());
+
+        sim.stop();
+        link.close();
+    }
+
+    @Test
+    public void talksBinaryOnceNegotiated() throws Exception {
+        PipeTransport link = new PipeTransport("sim");
+        SimulatedController sim = new SimulatedController(link)
+                .setFirmware(1, LedState.FEATURE_BINARY_PROTOCOL);
+        sim.start();
+
+        OutputStream out = link.getOutputStream();
+        ResponseReader reader = new ResponseReader(link.getInputStream());
+        ResponseMessage msg = new ResponseMessage();
+
+        out.write("v1\n".getBytes());
+        assertTrue(reader.read(msg));
+        assertEquals(LedState.FEATURE_BINARY_PROTOCOL, msg.getInt(1));
+
+        out.write(WireProtocol.encode("p1,2,10,20,300\n"));
+        assertTrue(reader.read(msg));
+        assertEquals("p1,2,10,20,300", msg.toString());
+        assertEquals(2, sim.getCommandsReceived());
+
+        sim.stop();
+        link.close();
+    }
+}
@@ -0,0 +1,42 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class StateCacheTest {
+    @Test
+    public void snapshotRoundTrips() throws Exception {
+        LedState state = new LedState();
+        state.updateFromString("l0,Off");
+        state.updateFromString("l1,Solid,Red,0,255,Green,0,255,Blue,0,255");
+        state.updateFromString("b77");
+        state.updateFromString("s1,2,3,4");
+        state.updateFromString("p2,1,10,20,30");
+        state.updateFromString("t2,5");
+
+        File file = File.createTempFile("led_state", ".bin");
+        StateCache cache = new StateCache(file);
+        cache.save(state);
+
+        LedState loaded = cache.load();
+        assertNotNull(loaded);
+        assertEquals(2, loaded.patterns.size());
+        assertEquals("Solid", loaded.patterns.get(1).name);
+        assertEquals("Blue", loaded.patterns.get(1).args.get(2).name);
+        assertEquals(77, loaded.globalBrightness);
+        assertArrayEquals(new int[] {1, 2, 3, 4}, loaded.sectionBrightness);
+        assertEquals(3, loaded.getLayerCount());
+        assertArrayEquals(new int[] {10, 20, 30}, loaded.getLayer(2).args);
+        assertEquals(5, loaded.getLayer(2).animStep);
+
+        file.delete();
+    }
+
+    @Test
+    public void missingSnapshotLoadsNothing() throws Exception {
+        assertNull(new StateCache(new File("does-not-exist.bin")).load());
+    }
+}
@@ -0,0 +1,88 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrafficRecorderTest {
+    @Test
+    public void recordsRoundTripThroughFile() throws Exception {
+        File file = File.createTempFile("traffic", ".bin");
+        TrafficRecorder recorder = new TrafficRecorder(file, 1024);
+        recorder.record(TrafficRecorder.OUTBOUND, 100, "b50\n");
+        recorder.record(TrafficRecorder.INBOUND, 250, "b50");
+        recorder.close();
+
+        List<TrafficRecorder.Record> records = TrafficRecorder.read(file);
+        assertEquals(2, records.size());
+        assertEquals(TrafficRecorder.OUTBOUND, records.get(0).direction);
+        assertEquals(100, records.get(0).timeNs);
+        assertEquals("b50", records.get(0).line);
+        assertEquals(TrafficRecorder.INBOUND, records.get(1).direction);
+        assertEquals(250, records.get(1).timeNs);
+
+        // Reopening continues the same log
+        recorder = new TrafficRecorder(file, 1024);
+        recorder.record(TrafficRecorder.OUTBOUND, 300, "c");
+        assertEquals(3, recorder.readAll().size());
+        recorder.close();
+
+        file.delete();
+    }
+
+    @Test
+    public void fullRingDropsOldestRecords() throws Exception {
+        File file = File.createTempFile("traffic", ".bin");
+        TrafficRecorder recorder = new TrafficRecorder(file, 100);
+        for(int i = 0; i < 50; i++) {
+            recorder.record(TrafficRecorder.OUTBOUND, i, "b" + (100 + i));
+        }
+
+        // 15 bytes a record, so the last 6 fit
+        List<TrafficRecorder.Record> records = recorder.readAll();
+        assertEquals(6, records.size());
+        assertTrue(recorder.size() <= 100);
+        for(int i = 0; i < records.size(); i++) {
+            assertEquals(44 + i, records.get(i).timeNs);
+            assertEquals("b" + (144 + i), records.get(i).line);
+        }
+        recorder.close();
+
+        file.delete();
+    }
+
+    @Test
+    public void replayRebuildsStateAndKeepsOrder() throws Exception {
+        List<TrafficRecorder.Record> records = new ArrayList<TrafficRecorder.Record>();
+        records.add(new TrafficRecorder.Record(TrafficRecorder.OUTBOUND, 0, "b77"));
+        records.add(new TrafficRecorder.Record(TrafficRecorder.INBOUND, 1000000, "b77"));
+        records.add(new TrafficRecorder.Record(TrafficRecorder.INBOUND, 2000000, "s1,2,3,4"));
+
+        LedState state = new LedState();
+        TrafficReplay replay = new TrafficReplay(records);
+        long elapsedNs = replay.run(TrafficReplay.stateTarget(state));
+
+        assertEquals(3, replay.getLinesReplayed());
+        assertTrue(elapsedNs >= 2000000);
+        assertEquals(77, state.globalBrightness);
+        assertArrayEquals(new int[] {1, 2, 3, 4}, state.sectionBrightness);
+
+        final List<String> seen = new ArrayList<String>();
+        new TrafficReplay(records).setSpeed(0).run(new TrafficReplay.Target() {
+            @Override
+            public void onOutbound(String line) {
+                seen.add("> " + line);
+            }
+
+            @Override
+            public void onInbound(String line) {
+                seen.add("< " + line);
+            }
+        });
+        assertEquals("[> b77, < b77, < s1,2,3,4]", seen.toString());
+    }
+}
@@ -0,0 +1,77 @@
+package com.seabasssoftware.led_controller;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class WireProtocolTest {
+    @Test
+    public void layerCommandRoundTrips() throws Exception {
+        byte[] frame = WireProtocol.encode("p0,3,12,200,7\n");
+        assertNotNull(frame);
+        assertTrue(frame.length < "p0,3,12,200,7\n".length());
+        assertEquals(WireProtocol.SYNC, frame[0] & 0xFF);
+
+        ResponseMessage msg = new ResponseMessage();
+        assertTrue(WireProtocol.decode(frame, 2, frame.length - 2, msg));
+        assertEquals("p0,3,12,200,7", msg.toString());
+    }
+
+    @Test
+    public void unencodableLinesStayText() throws Exception {
+        assertNull(WireProtocol.encode("l"));
+        assertNull(WireProtocol.encode("c"));
+        assertNull(WireProtocol.encode("l0,Rainbow\n"));
+    }
+
+    @Test
+    public void readerHandlesMixedTextAndFrames() throws Exception {
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        in.write("b100\r\n".getBytes());
+        in.write(WireProtocol.encode("a1,999\n"));
+        in.write("s1,2,3,4\n".getBytes());
+
+        ResponseReader reader = new ResponseReader(new ByteArrayInputStream(in.toByteArray()));
+        ResponseMessage msg = new ResponseMessage();
+        assertTrue(reader.read(msg));
+        assertEquals("b100", msg.toString());
+        assertTrue(reader.read(msg));
+        assertEquals('a', msg.getCode());
+        assertEquals(999, msg.getInt(1));
+        assertTrue(reader.read(msg));
+        assertEquals(4, msg.getArgCount());
+        assertEquals(4, msg.getInt(3));
+        assertFalse(reader.read(msg));
+    }
+
+    @Test
+    public void overlongLineIsDroppedAsInvalid() throws Exception {
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        in.write('l');
+        for(int i = 0; i < ResponseMessage.MAX_TEXT_LENGTH * 4; i++) in.write('x');
+        in.write("\nb100\n".getBytes());
+
+        ResponseReader reader = new ResponseReader(new ByteArrayInputStream(in.toByteArray()));
+        ResponseMessage msg = new ResponseMessage();
+        assertTrue(reader.read(msg));
+        assertEquals(0, msg.getCode());
+        assertTrue(msg.text.length <= ResponseMessage.MAX_TEXT_LENGTH);
+
+        // Next line is read as usual
+        assertTrue(reader.read(msg));
+        assertEquals("b100", msg.toString());
+    }
+
+    @Test
+    public void textPatternListKeepsStrings() throws Exception {
+        ResponseMessage msg = ResponseMessage.fromString("l2,Rainbow,speed,0,255");
+        assertEquals('l', msg.getCode());
+        assertEquals(2, msg.getInt(0));
+        assertEquals("Rainbow", msg.getString(1));
+        assertEquals("speed", msg.getString(2));
+        assertEquals(255, msg.getInt(4));
+    }
+}
@@ -0,0 +1,128 @@
+package com.seabasssoftware.led_controller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Encode and decode cost of the board protocol
+@State(Scope.Thread)
+public class ProtocolBenchmark {
+    private LedState mState;
+    private ResponseMessage mMessage;
+    private ByteArrayInputStream mDump;
+    private ByteArrayInputStream mBinaryDump;
+    private ResponseReader mDumpReader;
+    private ResponseReader mBinaryDumpReader;
+
+    // One line of each message type the board sends
+    @State(Scope.Thread)
+    public static class Line {
+        @Param({"p1,2,10,200,30", "a1,99", "t1,3", "b128", "s255,128,64,0",
+                "l1,Solid,Red,0,255,Green,0,255,Blue,0,255"})
+        public String line;
+
+        ResponseMessage parsed;
+        ByteArrayInputStream in;
+        ResponseReader reader;
+
+        @Setup
+        public void setup() {
+            parsed = ResponseMessage.fromString(line);
+            in = new ByteArrayInputStream((line + "\n").getBytes(StandardCharsets.US_ASCII));
+            reader = new ResponseReader(in);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        mState = new LedState();
+        mState.updateFromString("l1,Solid,Red,0,255,Green,0,255,Blue,0,255");
+        mMessage = new ResponseMessage();
+
+        // Full reply to "c" for four layers, in text and binary form
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        for(String s : dumpLines()) {
+            byte[] bytes = (s + "\n").getBytes(StandardCharsets.US_ASCII);
+            text.write(bytes);
+            byte[] frame = WireProtocol.encode(s + "\n");
+            binary.write(frame != null ? frame : bytes);
+        }
+        mDump = new ByteArrayInputStream(text.toByteArray());
+        mBinaryDump = new ByteArrayInputStream(binary.toByteArray());
+        mDumpReader = new ResponseReader(mDump);
+        mBinaryDumpReader = new ResponseReader(mBinaryDump);
+    }
+
+    private static String[] dumpLines() {
+        String[] lines = new String[2 + 4 * 3];
+        lines[0] = "b128";
+        lines[1] = "s255,128,64,0";
+        for(int i = 0; i < 4; i++) {
+            lines[2 + i * 3] = "p" + i + ",1,10,200,30";
+            lines[3 + i * 3] = "a" + i + ",99";
+            lines[4 + i * 3] = "t" + i + ",3";
+        }
+        return lines;
+    }
+
+    @Benchmark
+    public void updateFromString(Line l) {
+        mState.updateFromString(l.line);
+    }
+
+    @Benchmark
+    public void updateFromMessage(Line l) {
+        mState.update(l.parsed);
+    }
+
+    @Benchmark
+    public void parse(Line l, Blackhole bh) throws IOException {
+        l.in.reset();
+        bh.consume(l.reader.read(mMessage));
+    }
+
+    @Benchmark
+    public String layerConfigCommand() {
+        return mState.getLayer(1).getConfigCommand();
+    }
+
+    @Benchmark
+    public String globalConfigCommand() {
+        return mState.getGlobalConfigCommand();
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return WireProtocol.encode("p0,3,12,200,7\n");
+    }
+
+    @Benchmark
+    public int ingestTextDump() throws IOException {
+        return ingest(mDump, mDumpReader);
+    }
+
+    @Benchmark
+    public int ingestBinaryDump() throws IOException {
+        return ingest(mBinaryDump, mBinaryDumpReader);
+    }
+
+    // Readers are reused and rewound so the numbers only show the cost of reading itself
+    private int ingest(ByteArrayInputStream in, ResponseReader reader) throws IOException {
+        in.reset();
+        int count = 0;
+        while(reader.read(mMessage)) {
+            mState.update(mMessage);
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,83 @@
+package com.seabasssoftware.led_controller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Throughput of the command send queue, on its own and with a producer and consumer thread. Lines
+// are taken the way the sender takes them: a due scheduled command first, otherwise the oldest
+// pending line, never waiting.
+@State(Scope.Group)
+public class SendQueueBenchmark {
+    private static final String[] COMMANDS = {
+            "p0,1,10,200,30\n", "a0,99\n", "t0,3\n",
+            "p1,1,10,200,30\n", "a1,99\n", "t1,3\n",
+            "b128\n", "s255,128,64,0\n"
+    };
+    private static final String BURST = "p0,1,10,200,30\nb128\ns255,128,64,0\n";
+
+    private CommandQueue mQueue;
+    private int mNext = 0;
+
+    @Setup
+    public void setup() {
+        mQueue = new CommandQueue();
+    }
+
+    // What one run of the sender takes from the queue, or null if there's nothing to send yet
+    private String takeNext() {
+        CommandQueue.Scheduled due = mQueue.pollDue();
+        if(due != null) return due.cmd;
+        mQueue.getNextDueNs();
+        String line = mQueue.poll();
+        mQueue.getPolledReceipts();
+        return line;
+    }
+
+    // Distinct settings, each offered and then taken straight away
+    @Benchmark
+    public String offerPoll() {
+        mQueue.offer(COMMANDS[mNext++ & 7]);
+        return takeNext();
+    }
+
+    // Slider drag: many updates to one setting coalesce into one pending line
+    @Benchmark
+    public int offerCoalesced() {
+        mQueue.offer("a0,99\n");
+        if((++mNext & 15) == 0) {
+            takeNext();
+        }
+        return mQueue.size();
+    }
+
+    // Scene recall: a burst scheduled over pending lines for the same settings
+    @Benchmark
+    public String burstOverPending() {
+        mQueue.offer(COMMANDS[mNext++ & 7]);
+        mQueue.offer(COMMANDS[mNext++ & 7]);
+        mQueue.offerAt(new CommandQueue.Scheduled(BURST, System.nanoTime(), null));
+        String cmd = takeNext();
+        while(takeNext() != null) {
+            // Drain whatever the burst didn't replace
+        }
+        return cmd;
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    public void produce() {
+        mQueue.offer(COMMANDS[mNext++ & 7]);
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    public String consume() {
+        return takeNext();
+    }
+}